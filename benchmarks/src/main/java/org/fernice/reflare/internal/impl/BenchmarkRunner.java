@@ -0,0 +1,33 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks headless with the GC profiler attached, so that the allocation rate of
+ * every benchmark is reported next to its timing. Command line arguments are passed on to JMH.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder() //
+                .parent(new CommandLineOptions(args)) //
+                .addProfiler(GCProfiler.class) //
+                .jvmArgsAppend("-Djava.awt.headless=true") //
+                .build();
+
+        new Runner(options).run();
+    }
+}
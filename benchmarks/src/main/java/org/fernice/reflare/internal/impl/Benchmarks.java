@@ -0,0 +1,79 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.MediaTracker;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import sun.awt.image.MultiResolutionImage;
+
+final class Benchmarks {
+
+    private static final Component component = new Component() {
+    };
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Returns the specified number of fonts by cycling through all installed fonts or through the
+     * logical fonts, if no fonts are installed.
+     */
+    static Font[] getFonts(int count) {
+        Font[] installedFonts = GraphicsEnvironment.getLocalGraphicsEnvironment().getAllFonts();
+        if (installedFonts.length == 0) {
+            installedFonts = new Font[]{new Font(Font.DIALOG, Font.PLAIN, 1), new Font(Font.SANS_SERIF, Font.PLAIN, 1),
+                    new Font(Font.SERIF, Font.PLAIN, 1), new Font(Font.MONOSPACED, Font.PLAIN, 1)};
+        }
+
+        Font[] fonts = Arrays.copyOf(installedFonts, count);
+        for (int i = installedFonts.length; i < count; i++) {
+            fonts[i] = installedFonts[i % installedFonts.length];
+        }
+        return fonts;
+    }
+
+    static BufferedImage createImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int alpha = (x + y) % 3 == 0 ? 0 : 0xFF;
+                image.setRGB(x, y, alpha << 24 | (x * 255 / width) << 16 | (y * 255 / height) << 8 | 0x80);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Waits until the image and all of its resolution variants are fully produced, which forces
+     * lazily produced images to do their actual work inside of the benchmark.
+     */
+    static Image realize(Image image) throws InterruptedException {
+        if (image instanceof MultiResolutionImage) {
+            for (Image variant : ((MultiResolutionImage) image).getResolutionVariants()) {
+                load(variant);
+            }
+        } else {
+            load(image);
+        }
+        return image;
+    }
+
+    private static void load(Image image) throws InterruptedException {
+        if (image instanceof BufferedImage) {
+            return;
+        }
+
+        MediaTracker tracker = new MediaTracker(component);
+        tracker.addImage(image, 0);
+        tracker.waitForID(0);
+    }
+}
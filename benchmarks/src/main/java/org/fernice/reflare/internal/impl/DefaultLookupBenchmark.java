@@ -0,0 +1,65 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.util.concurrent.TimeUnit;
+import javax.swing.JButton;
+import javax.swing.JComponent;
+import javax.swing.plaf.ComponentUI;
+import org.fernice.reflare.internal.DefaultLookup;
+import org.fernice.reflare.internal.DefaultLookupDelegate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DefaultLookupBenchmark {
+
+    @Param({"false", "true"})
+    public boolean caching;
+
+    private JButton component;
+    private ComponentUI ui;
+
+    @Setup
+    public void setup() {
+        DefaultLookupAccessorImpl.setCachingEnabled(caching);
+
+        new DefaultLookupAccessorImpl().setDefaultLookup(new DefaultLookup() {
+            @Override
+            public Object getDefault(JComponent c, ComponentUI ui, String key, DefaultLookupDelegate delegate) {
+                return delegate.getDefault(c, ui, key);
+            }
+        });
+
+        component = new JButton("Benchmark");
+        ui = component.getUI();
+    }
+
+    @Benchmark
+    public Object getDefault() {
+        return sun.swing.DefaultLookup.get(component, ui, "Button.font");
+    }
+
+    @Benchmark
+    public Object getDefaultMissing() {
+        return sun.swing.DefaultLookup.get(component, ui, "Button.missing");
+    }
+}
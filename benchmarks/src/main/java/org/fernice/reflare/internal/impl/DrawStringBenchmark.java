@@ -0,0 +1,70 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import javax.swing.JLabel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DrawStringBenchmark {
+
+    private static final String TEXT = "Quarterly revenue (EUR)";
+
+    private SwingUtilitiesAccessorImpl accessor;
+
+    private JLabel component;
+    private Graphics2D graphics;
+
+    @Setup
+    public void setup() {
+        accessor = new SwingUtilitiesAccessorImpl();
+
+        component = new JLabel(TEXT);
+        component.setFont(new Font(Font.DIALOG, Font.PLAIN, 13));
+        component.putClientProperty(AATextInfoAccessorImpl.AA_TEXT_INFO_KEY, AATextInfoAccessorImpl.getAATextInfo());
+
+        BufferedImage image = new BufferedImage(400, 40, BufferedImage.TYPE_INT_ARGB);
+        graphics = image.createGraphics();
+        graphics.setFont(component.getFont());
+        graphics.setColor(Color.BLACK);
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public void drawString() {
+        accessor.drawString(component, graphics, TEXT, 4, 24);
+    }
+
+    @Benchmark
+    public void drawStringUnderlineCharAt() {
+        accessor.drawStringUnderlineCharAt(component, graphics, TEXT, 2, 4, 24);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.Font;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.fernice.reflare.internal.impl.FontRegistry.FontExtension;
+import org.fernice.reflare.internal.impl.SunFontAccessorImpl.FontPeer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dorg.fernice.reflare.fontCatalog=none"})
+public class FontFamilyRefreshBenchmark {
+
+    @Param({"250", "1000", "4000"})
+    public int catalogSize;
+
+    private Font[] fonts;
+    private FontRegistry registry;
+    private List<FontExtension> extensions;
+
+    @Setup
+    public void setup() {
+        fonts = Benchmarks.getFonts(catalogSize);
+        registry = FontRegistry.EMPTY.withSystemFontFamilies(FontRegistry.mergeSystemFontFamilies(fonts));
+
+        extensions = new ArrayList<>();
+        for (Font font : Benchmarks.getFonts(40)) {
+            extensions.add(new FontExtension(font.deriveFont(13f)));
+        }
+    }
+
+    @Benchmark
+    public FontRegistry refresh() {
+        Map<String, List<FontPeer>> systemFontFamilies = FontRegistry.mergeSystemFontFamilies(fonts);
+
+        return FontRegistry.EMPTY.withSystemFontFamilies(systemFontFamilies);
+    }
+
+    @Benchmark
+    public FontRegistry registerFontExtensions() {
+        return registry.withFontExtensions(extensions, false).registry;
+    }
+
+    @Benchmark
+    public FontRegistry registerFontExtensionOverrides() {
+        return registry.withFontExtensions(extensions, true).registry;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.Font;
+import java.awt.GraphicsEnvironment;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class FontLookupBenchmark {
+
+    private SunFontAccessorImpl accessor;
+
+    private String family;
+    private String mixedCaseFamily;
+
+    @Setup
+    public void setup() {
+        accessor = new SunFontAccessorImpl();
+
+        family = GraphicsEnvironment.getLocalGraphicsEnvironment().getAllFonts()[0].getFamily();
+        mixedCaseFamily = family.toUpperCase(Locale.ENGLISH);
+
+        accessor.findFont(family, 400, false);
+    }
+
+    @Benchmark
+    public Font findFontHit() {
+        return accessor.findFont(family, 400, false);
+    }
+
+    @Benchmark
+    public Font findFontHitNearestWeight() {
+        return accessor.findFont(family, 550, false);
+    }
+
+    @Benchmark
+    public Font findFontHitMixedCase() {
+        return accessor.findFont(mixedCaseFamily, 700, false);
+    }
+
+    @Benchmark
+    public Font findFontMiss() {
+        return accessor.findFont("Reflare Missing Family", 400, false);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.Image;
+import java.awt.image.ImageFilter;
+import java.util.concurrent.TimeUnit;
+import javax.swing.GrayFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sun.awt.SunToolkit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ImageBenchmark {
+
+    @Param({"16", "64", "256"})
+    public int size;
+
+    private ImageAccessorImpl accessor;
+
+    private Image image;
+    private Image multiResolutionImage;
+    private ImageFilter filter;
+
+    @Setup
+    public void setup() {
+        accessor = new ImageAccessorImpl();
+
+        image = Benchmarks.createImage(size, size);
+        multiResolutionImage = SunToolkit.createImageWithResolutionVariant(image, Benchmarks.createImage(size * 2, size * 2));
+        filter = new GrayFilter(true, 50);
+    }
+
+    /**
+     * Measures deriving the images, the derived images are dropped before every invocation.
+     */
+    @Benchmark
+    public Image scaledInstance(Uncached uncached) throws InterruptedException {
+        return Benchmarks.realize(accessor.getScaledInstance(image, size * 3 / 2, size * 3 / 2, Image.SCALE_SMOOTH));
+    }
+
+    @Benchmark
+    public Image scaledInstanceMultiResolution(Uncached uncached) throws InterruptedException {
+        return Benchmarks.realize(accessor.getScaledInstance(multiResolutionImage, size * 3 / 2, size * 3 / 2, Image.SCALE_SMOOTH));
+    }
+
+    @Benchmark
+    public Image filteredInstance(Uncached uncached) throws InterruptedException {
+        return Benchmarks.realize(accessor.getFilteredInstance(image, filter));
+    }
+
+    @Benchmark
+    public Image filteredInstanceMultiResolution(Uncached uncached) throws InterruptedException {
+        return Benchmarks.realize(accessor.getFilteredInstance(multiResolutionImage, filter));
+    }
+
+    /**
+     * Measures looking up the derived images, which are derived once by the first invocation.
+     */
+    @Benchmark
+    public Image scaledInstanceCached() throws InterruptedException {
+        return Benchmarks.realize(accessor.getScaledInstance(image, size * 3 / 2, size * 3 / 2, Image.SCALE_SMOOTH));
+    }
+
+    @Benchmark
+    public Image filteredInstanceCached() throws InterruptedException {
+        return Benchmarks.realize(accessor.getFilteredInstance(image, filter));
+    }
+
+    @State(Scope.Thread)
+    public static class Uncached {
+
+        @Setup(Level.Invocation)
+        public void clear() {
+            ImageAccessorImpl.clearDerivedImageCache();
+        }
+    }
+}
@@ -1,10 +1,17 @@
 package org.fernice.reflare.internal.impl;
 
+import java.awt.GraphicsEnvironment;
+import java.awt.Toolkit;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.fernice.reflare.internal.AATextInfoHelper.AATextInfoAccessor;
+import sun.awt.DisplayChangedListener;
+import sun.java2d.SunGraphicsEnvironment;
 import sun.security.action.GetPropertyAction;
 import sun.swing.SwingUtilities2;
 
@@ -12,13 +19,72 @@ public class AATextInfoAccessorImpl implements AATextInfoAccessor {
 
     public static final Object AA_TEXT_INFO_KEY = SwingUtilities2.AA_TEXT_PROPERTY_KEY;
 
+    private static final String DESKTOP_HINTS_PROPERTY = "awt.font.desktophints";
+
+    private static final AtomicInteger generation = new AtomicInteger();
+    private static volatile CachedAATextInfo cachedAATextInfo;
+    // concurrent callers wait for the info being computed instead of computing it once more
+    private static final Object computeLock = new Object();
+
+    // display changed listeners are only referenced weakly
+    private static final ChangeListener changeListener = new ChangeListener();
+
+    private static final Metrics.Timer computeTimer = Metrics.timer("text.aaTextInfo.compute");
+
+    static {
+        Toolkit.getDefaultToolkit().addPropertyChangeListener(DESKTOP_HINTS_PROPERTY, changeListener);
+
+        GraphicsEnvironment graphicsEnvironment = GraphicsEnvironment.getLocalGraphicsEnvironment();
+        if (graphicsEnvironment instanceof SunGraphicsEnvironment) {
+            ((SunGraphicsEnvironment) graphicsEnvironment).addDisplayChangedListener(changeListener);
+        }
+    }
+
     @Override
     public void aaTextInfo(Map<Object, Object> defaults) {
         defaults.put(AA_TEXT_INFO_KEY, getAATextInfo());
     }
 
+    /**
+     * Returns the text antialiasing info for the current desktop, which is shared by all callers.
+     * The info is only computed again after the desktop hints, the display or the default locale
+     * have changed.
+     */
     public static Object getAATextInfo() {
         String language = Locale.getDefault().getLanguage();
+        int generation = AATextInfoAccessorImpl.generation.get();
+
+        CachedAATextInfo cached = cachedAATextInfo;
+        if (cached != null && cached.generation == generation && cached.language.equals(language)) {
+            return cached.aaTextInfo;
+        }
+
+        synchronized (computeLock) {
+            cached = cachedAATextInfo;
+            if (cached != null && cached.generation == generation && cached.language.equals(language)) {
+                return cached.aaTextInfo;
+            }
+
+            // an invalidation during the computation changes the generation and discards the result
+            long start = Metrics.start();
+            Object aaTextInfo = computeAATextInfo(language);
+            computeTimer.record(start);
+
+            cachedAATextInfo = new CachedAATextInfo(generation, language, aaTextInfo);
+
+            return aaTextInfo;
+        }
+    }
+
+    /**
+     * Invalidates the cached text antialiasing info. Changes of the desktop hints, the display and
+     * the default locale invalidate the info implicitly.
+     */
+    public static void invalidateAATextInfo() {
+        generation.incrementAndGet();
+    }
+
+    private static Object computeAATextInfo(String language) {
         String desktop = AccessController.doPrivileged(new GetPropertyAction("sun.desktop"));
 
         boolean isCjkLocale = (Locale.CHINESE.getLanguage().equals(language) || Locale.JAPANESE.getLanguage().equals(language) ||
@@ -30,4 +96,34 @@ public class AATextInfoAccessorImpl implements AATextInfoAccessor {
 
         return SwingUtilities2.AATextInfo.getAATextInfo(setAA);
     }
+
+    private static final class CachedAATextInfo {
+
+        final int generation;
+        final String language;
+        final Object aaTextInfo;
+
+        CachedAATextInfo(int generation, String language, Object aaTextInfo) {
+            this.generation = generation;
+            this.language = language;
+            this.aaTextInfo = aaTextInfo;
+        }
+    }
+
+    private static final class ChangeListener implements PropertyChangeListener, DisplayChangedListener {
+
+        @Override
+        public void propertyChange(PropertyChangeEvent event) {
+            invalidateAATextInfo();
+        }
+
+        @Override
+        public void displayChanged() {
+            invalidateAATextInfo();
+        }
+
+        @Override
+        public void paletteChanged() {
+        }
+    }
 }
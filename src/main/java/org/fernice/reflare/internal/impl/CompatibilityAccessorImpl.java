@@ -1,10 +1,31 @@
 package org.fernice.reflare.internal.impl;
 
+import java.util.Map;
 import org.fernice.reflare.internal.CompatibilityHelper.CompatibilityAccessor;
 
 public class CompatibilityAccessorImpl implements CompatibilityAccessor {
 
+    /**
+     * Starts warming up the accessors in the background.
+     *
+     * @see WarmUp
+     */
     @Override
     public void ensureCompatibility() {
+        WarmUp.start();
+    }
+
+    /**
+     * Waits for the warm-up to complete, which is primarily intended for tests and benchmarks.
+     */
+    public static void awaitWarmUp() {
+        WarmUp.await();
+    }
+
+    /**
+     * Returns the duration of every completed warm-up phase in nanoseconds by phase name.
+     */
+    public static Map<String, Long> getWarmUpPhaseNanos() {
+        return WarmUp.getPhaseNanos();
     }
 }
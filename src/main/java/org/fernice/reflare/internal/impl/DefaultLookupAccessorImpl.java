@@ -1,23 +1,151 @@
 package org.fernice.reflare.internal.impl;
 
+import java.beans.PropertyChangeListener;
+import java.lang.ref.WeakReference;
+import java.security.AccessController;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import javax.swing.JComponent;
+import javax.swing.UIManager;
 import javax.swing.plaf.ComponentUI;
 import org.fernice.reflare.internal.DefaultLookup;
 import org.fernice.reflare.internal.DefaultLookupDelegate;
 import org.fernice.reflare.internal.DefaultLookupHelper.DefaultLookupAccessor;
+import sun.security.action.GetPropertyAction;
 
 public class DefaultLookupAccessorImpl implements DefaultLookupAccessor {
 
+    /**
+     * System property enabling the cache of resolved defaults, which is disabled by default.
+     */
+    public static final String CACHE_PROPERTY = "org.fernice.reflare.cacheDefaults";
+
+    private static volatile boolean cachingEnabled = Boolean.parseBoolean(AccessController.doPrivileged(new GetPropertyAction(CACHE_PROPERTY)));
+    private static volatile DefaultLookupWrapper currentWrapper;
+
+    private static final Metrics.Timer lookupTimer = Metrics.timer("defaults.lookup");
+
+    static {
+        Metrics.gauge("defaults.cache.hits", DefaultLookupAccessorImpl::getCacheHitCount);
+        Metrics.gauge("defaults.cache.misses", DefaultLookupAccessorImpl::getCacheMissCount);
+    }
+
     @Override
     public void setDefaultLookup(DefaultLookup defaultLookup) {
-        sun.swing.DefaultLookup.setDefaultLookup(new DefaultLookupWrapper(defaultLookup));
+        DefaultLookupWrapper wrapper = new DefaultLookupWrapper(defaultLookup);
+
+        DefaultLookupWrapper previousWrapper = currentWrapper;
+        if (previousWrapper != null) {
+            UIManager.removePropertyChangeListener(previousWrapper.lookAndFeelListener);
+        }
+        UIManager.addPropertyChangeListener(wrapper.lookAndFeelListener);
+        currentWrapper = wrapper;
+
+        sun.swing.DefaultLookup.setDefaultLookup(wrapper);
+    }
+
+    /**
+     * Enables or disables the cache of resolved defaults. Disabling the cache also drops all
+     * values cached so far.
+     *
+     * @param enabled whether defaults should be cached
+     */
+    public static void setCachingEnabled(boolean enabled) {
+        cachingEnabled = enabled;
+
+        if (!enabled) {
+            invalidateDefaults();
+        }
+    }
+
+    public static boolean isCachingEnabled() {
+        return cachingEnabled;
+    }
+
+    /**
+     * Invalidates all cached defaults. Should be called whenever the backing {@link DefaultLookup}
+     * might resolve different values than before, for instance after a stylesheet has changed.
+     * Changes of the look and feel invalidate the cache implicitly.
+     */
+    public static void invalidateDefaults() {
+        DefaultLookupWrapper wrapper = currentWrapper;
+        if (wrapper != null) {
+            wrapper.invalidate();
+        }
+    }
+
+    /**
+     * Invalidates the cached defaults of the specified component. Should be called whenever the
+     * style of the component has changed.
+     *
+     * @param component the component whose defaults have changed
+     */
+    public static void invalidateDefaults(JComponent component) {
+        DefaultLookupWrapper wrapper = currentWrapper;
+        if (wrapper != null) {
+            wrapper.invalidate(component);
+        }
+    }
+
+    /**
+     * Resolves all of the specified keys for the component at once, which is intended for the
+     * installation of defaults through a UI delegate.
+     *
+     * @param c    the component to resolve the defaults for
+     * @param ui   the UI delegate of the component
+     * @param keys the keys to resolve
+     * @return the resolved values by key in the order of the keys
+     */
+    public static Map<String, Object> resolveDefaults(JComponent c, ComponentUI ui, String... keys) {
+        DefaultLookupWrapper wrapper = currentWrapper;
+
+        Map<String, Object> defaults = new LinkedHashMap<>(keys.length * 4 / 3 + 1);
+        if (wrapper != null) {
+            wrapper.resolve(c, ui, keys, defaults);
+        } else {
+            for (String key : keys) {
+                defaults.put(key, sun.swing.DefaultLookup.get(c, ui, key));
+            }
+        }
+        return defaults;
+    }
+
+    public static long getCacheHitCount() {
+        DefaultLookupWrapper wrapper = currentWrapper;
+        return wrapper != null ? wrapper.hits.sum() : 0;
+    }
+
+    public static long getCacheMissCount() {
+        DefaultLookupWrapper wrapper = currentWrapper;
+        return wrapper != null ? wrapper.misses.sum() : 0;
     }
 
     private static final class DefaultLookupWrapper extends sun.swing.DefaultLookup {
 
+        private static final Object NULL = new Object();
+
         private final DefaultLookup lookup;
         private final DefaultLookupDelegate delegate;
 
+        // guarded by this, the values must not reference their component, as it would never be
+        // collected otherwise
+        private final Map<JComponent, ComponentDefaults> componentDefaults = new WeakHashMap<>();
+        private final Map<Class<?>, Map<String, Object>> uiDefaults = new HashMap<>();
+        private int generation;
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        final PropertyChangeListener lookAndFeelListener = (event) -> {
+            if ("lookAndFeel".equals(event.getPropertyName())) {
+                invalidate();
+            }
+        };
+
         DefaultLookupWrapper(DefaultLookup lookup) {
             this.lookup = lookup;
             this.delegate = super::getDefault;
@@ -25,7 +153,96 @@ public class DefaultLookupAccessorImpl implements DefaultLookupAccessor {
 
         @Override
         public Object getDefault(JComponent c, ComponentUI ui, String key) {
-            return lookup.getDefault(c, ui, key, delegate);
+            long start = Metrics.start();
+            try {
+                if (!cachingEnabled) {
+                    return lookup.getDefault(c, ui, key, delegate);
+                }
+
+                Map<String, Object> values;
+                synchronized (this) {
+                    values = getDefaults(c, ui);
+                }
+                return resolve(values, c, ui, key);
+            } finally {
+                lookupTimer.record(start);
+            }
+        }
+
+        void resolve(JComponent c, ComponentUI ui, String[] keys, Map<String, Object> defaults) {
+            if (!cachingEnabled) {
+                for (String key : keys) {
+                    defaults.put(key, lookup.getDefault(c, ui, key, delegate));
+                }
+                return;
+            }
+
+            Map<String, Object> values;
+            synchronized (this) {
+                values = getDefaults(c, ui);
+            }
+            for (String key : keys) {
+                defaults.put(key, resolve(values, c, ui, key));
+            }
+        }
+
+        // the lookup itself is performed without holding the lock, concurrent invalidations
+        // replace the map of values, so that a stale value is never stored into a current map
+        private Object resolve(Map<String, Object> values, JComponent c, ComponentUI ui, String key) {
+            if (values == null) {
+                misses.increment();
+                return lookup.getDefault(c, ui, key, delegate);
+            }
+
+            Object value = values.get(key);
+            if (value != null) {
+                hits.increment();
+                return value != NULL ? value : null;
+            }
+
+            misses.increment();
+            value = lookup.getDefault(c, ui, key, delegate);
+
+            values.put(key, value != null ? value : NULL);
+            return value;
+        }
+
+        private Map<String, Object> getDefaults(JComponent c, ComponentUI ui) {
+            if (c != null) {
+                ComponentDefaults defaults = componentDefaults.get(c);
+                if (defaults == null || defaults.ui.get() != ui || defaults.generation != generation) {
+                    defaults = new ComponentDefaults(ui, generation);
+                    componentDefaults.put(c, defaults);
+                }
+                return defaults.values;
+            } else if (ui != null) {
+                return uiDefaults.computeIfAbsent(ui.getClass(), (type) -> new ConcurrentHashMap<>());
+            } else {
+                return null;
+            }
+        }
+
+        synchronized void invalidate() {
+            generation++;
+            componentDefaults.clear();
+            uiDefaults.clear();
+        }
+
+        synchronized void invalidate(JComponent component) {
+            componentDefaults.remove(component);
+        }
+    }
+
+    private static final class ComponentDefaults {
+
+        // most UI delegates reference their component, which would keep it reachable
+        final WeakReference<ComponentUI> ui;
+        final int generation;
+        final Map<String, Object> values = new ConcurrentHashMap<>();
+
+        ComponentDefaults(ComponentUI ui, int generation) {
+            this.ui = new WeakReference<>(ui);
+            this.generation = generation;
         }
     }
 }
@@ -0,0 +1,85 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.Image;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Cache of images derived from a source image, such as scaled or filtered instances. The source
+ * images are only weakly referenced, the derived images are dropped together with their source.
+ * Derived images must therefore not reference their source image.
+ * <p>
+ * Only a limited number of derived images is retained per source image and the least recently
+ * used ones are dropped first, so that deriving images with a new key on every call, such as a
+ * newly created filter, does not accumulate derived images.
+ */
+final class DerivedImageCache {
+
+    private static final int MAX_DERIVED_IMAGES = 8;
+
+    // guarded by itself
+    private final Map<Image, Map<Object, Image>> derivedImages = new WeakHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @Nullable
+    Image get(@NotNull Image source, @NotNull Object key) {
+        Image image;
+        synchronized (derivedImages) {
+            Map<Object, Image> images = derivedImages.get(source);
+            image = images != null ? images.get(key) : null;
+        }
+
+        if (image != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return image;
+    }
+
+    void put(@NotNull Image source, @NotNull Object key, @NotNull Image image) {
+        synchronized (derivedImages) {
+            derivedImages.computeIfAbsent(source, (s) -> new DerivedImages()).put(key, image);
+        }
+    }
+
+    void clear() {
+        synchronized (derivedImages) {
+            derivedImages.clear();
+        }
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    private static final class DerivedImages extends LinkedHashMap<Object, Image> {
+
+        private static final long serialVersionUID = 1L;
+
+        DerivedImages() {
+            super(4, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Image> eldest) {
+            return size() > MAX_DERIVED_IMAGES;
+        }
+    }
+}
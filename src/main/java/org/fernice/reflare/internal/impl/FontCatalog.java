@@ -0,0 +1,320 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.fernice.reflare.internal.impl.SunFontAccessorImpl.FontPeer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Persistent catalog of the system font families, which allows the font families to be served
+ * on startup without enumerating all fonts through the FontManager. The catalog is keyed on a
+ * fingerprint of the font directories, the fontconfig configuration and the running JDK and is
+ * discarded as soon as the fingerprint no longer matches. Along with the fonts, the catalog
+ * contains the pages of their {@link FontCoverage} computed so far.
+ * <p>
+ * The location of the catalog can be configured through the {@code org.fernice.reflare.fontCatalog}
+ * system property, setting it to {@code none} disables the catalog entirely.
+ */
+final class FontCatalog {
+
+    static final String CATALOG_PROPERTY = "org.fernice.reflare.fontCatalog";
+
+    private static final int MAGIC = 0x52464643; // RFFC
+    private static final int VERSION = 2;
+
+    private FontCatalog() {
+    }
+
+    @Nullable
+    static File getCatalogFile() {
+        return AccessController.doPrivileged((PrivilegedAction<File>) () -> {
+            String location = System.getProperty(CATALOG_PROPERTY);
+            if (location == null) {
+                return new File(System.getProperty("user.home"), ".fernice" + File.separator + "reflare" + File.separator + "font-catalog-jdk8.bin");
+            }
+            if (location.isEmpty() || location.equals("none")) {
+                return null;
+            }
+            return new File(location);
+        });
+    }
+
+    /**
+     * Computes the fingerprint of all locations that influence the set of system fonts. The
+     * individual entries are combined order-independently, so that the fingerprint is stable
+     * across differing directory listing orders.
+     */
+    static long computeFingerprint() {
+        return AccessController.doPrivileged((PrivilegedAction<Long>) () -> {
+            long fingerprint = hash(0xcbf29ce484222325L, VERSION);
+            fingerprint = hash(fingerprint, System.getProperty("java.vendor"));
+            fingerprint = hash(fingerprint, System.getProperty("java.version"));
+            fingerprint = hash(fingerprint, System.getProperty("java.home"));
+            fingerprint = hash(fingerprint, System.getProperty("os.name"));
+
+            List<File> locations = new ArrayList<>(FontDirectories.getFontDirectories());
+            locations.addAll(FontDirectories.getFontConfigLocations());
+
+            long[] entries = new long[1];
+            for (File location : locations) {
+                entries[0] += hash(hash(0, location.getPath()), location.exists() ? 1 : 0);
+
+                if (!location.exists()) {
+                    continue;
+                }
+
+                try {
+                    Files.walkFileTree(location.toPath(), new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                            entries[0] += hash(dir, attrs);
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                            entries[0] += hash(file, attrs);
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+                } catch (IOException e) {
+                    entries[0] += hash(0, e.getClass().getName());
+                }
+            }
+
+            return hash(fingerprint, entries[0]);
+        });
+    }
+
+    @Nullable
+    static Map<String, List<FontPeer>> load(@NotNull File file, long fingerprint) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        MappedByteBuffer buffer = null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != fingerprint) {
+                return null;
+            }
+
+            FontPeer[] peers = new FontPeer[buffer.getInt()];
+            for (int i = 0; i < peers.length; i++) {
+                String name = readString(buffer);
+                int weight = buffer.getInt();
+                boolean italic = buffer.get() != 0;
+
+                peers[i] = new FontPeer(name, weight, italic);
+
+                int pageCount = buffer.getInt();
+                for (int j = 0; j < pageCount; j++) {
+                    int index = buffer.getInt();
+                    long[] page = new long[FontCoverage.PAGE_WORDS];
+                    for (int k = 0; k < page.length; k++) {
+                        page[k] = buffer.getLong();
+                    }
+
+                    peers[i].getCoverage().restorePage(index, page);
+                }
+            }
+
+            int familyCount = buffer.getInt();
+            Map<String, List<FontPeer>> fontFamilies = new HashMap<>(familyCount * 4 / 3 + 1);
+            for (int i = 0; i < familyCount; i++) {
+                String familyName = readString(buffer);
+
+                int fontCount = buffer.getInt();
+                List<FontPeer> fontFamily = new ArrayList<>(fontCount);
+                for (int j = 0; j < fontCount; j++) {
+                    fontFamily.add(peers[buffer.getInt()]);
+                }
+
+                fontFamilies.put(familyName, fontFamily);
+            }
+
+            return fontFamilies;
+        } catch (IOException | RuntimeException e) {
+            // corrupted or truncated catalogs are simply rebuilt
+            return null;
+        } finally {
+            // everything has been copied out of the mapping, which would prevent the catalog
+            // from being replaced on Windows
+            if (buffer != null) {
+                MappedBuffers.unmap(buffer);
+            }
+        }
+    }
+
+    /**
+     * Stores the font families along with the coverage of their fonts computed so far.
+     *
+     * @return whether the catalog has been stored
+     */
+    static boolean store(@NotNull File file, long fingerprint, @NotNull Map<String, List<FontPeer>> fontFamilies) {
+        Map<FontPeer, Integer> peerIndices = new IdentityHashMap<>();
+        List<FontPeer> peers = new ArrayList<>();
+        for (List<FontPeer> fontFamily : fontFamilies.values()) {
+            for (FontPeer peer : fontFamily) {
+                if (!peerIndices.containsKey(peer)) {
+                    peerIndices.put(peer, peers.size());
+                    peers.add(peer);
+                }
+            }
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+            DataOutputStream output = new DataOutputStream(bytes);
+
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(fingerprint);
+
+            output.writeInt(peers.size());
+            for (FontPeer peer : peers) {
+                writeString(output, peer.name);
+                output.writeInt(peer.weight);
+                output.writeByte(peer.italic ? 1 : 0);
+
+                writeCoverage(output, peer.peekCoverage());
+            }
+
+            output.writeInt(fontFamilies.size());
+            for (Map.Entry<String, List<FontPeer>> entry : fontFamilies.entrySet()) {
+                writeString(output, entry.getKey());
+
+                output.writeInt(entry.getValue().size());
+                for (FontPeer peer : entry.getValue()) {
+                    output.writeInt(peerIndices.get(peer));
+                }
+            }
+
+            output.flush();
+
+            write(file, bytes.toByteArray());
+            return true;
+        } catch (IOException | SecurityException e) {
+            // the catalog is purely an optimization
+            return false;
+        }
+    }
+
+    private static void writeCoverage(@NotNull DataOutputStream output, @Nullable FontCoverage coverage) throws IOException {
+        if (coverage == null) {
+            output.writeInt(0);
+            return;
+        }
+
+        List<Integer> indices = new ArrayList<>();
+        List<long[]> pages = new ArrayList<>();
+        for (int index = 0; index < FontCoverage.PAGE_COUNT; index++) {
+            long[] page = coverage.getPage(index);
+            if (page != null) {
+                indices.add(index);
+                pages.add(page);
+            }
+        }
+
+        output.writeInt(pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            output.writeInt(indices.get(i));
+            for (long word : pages.get(i)) {
+                output.writeLong(word);
+            }
+        }
+    }
+
+    private static void write(@NotNull File file, @NotNull byte[] bytes) throws IOException {
+        Path target = file.getAbsoluteFile().toPath();
+        Path directory = target.getParent();
+        Files.createDirectories(directory);
+
+        Path temporary = Files.createTempFile(directory, file.getName(), ".tmp");
+        try {
+            try (OutputStream output = Files.newOutputStream(temporary)) {
+                output.write(bytes);
+            }
+
+            try {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    @NotNull
+    private static String readString(@NotNull ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(@NotNull DataOutputStream output, @NotNull String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("string exceeds catalog limits: " + value.length());
+        }
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+
+    private static long hash(@NotNull Path path, @NotNull BasicFileAttributes attrs) {
+        long hash = hash(0, path.toString());
+        hash = hash(hash, attrs.lastModifiedTime().toMillis());
+        return hash(hash, attrs.size());
+    }
+
+    private static long hash(long hash, @Nullable String value) {
+        if (value == null) {
+            return hash(hash, 0);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, long value) {
+        hash = (hash ^ value) * 0x100000001b3L;
+        return hash ^ (hash >>> 29);
+    }
+}
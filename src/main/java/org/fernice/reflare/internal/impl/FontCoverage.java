@@ -0,0 +1,107 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sun.font.Font2D;
+import sun.font.FontAccess;
+
+/**
+ * Bitset of the code points a font is able to display. The bitset is divided into pages of 256
+ * code points, which are only computed through {@link Font2D#canDisplay(int)} once a code point
+ * of that page is queried for the first time. Computed pages can be persisted and restored, so
+ * that a font's coverage does not have to be computed again on the next startup.
+ */
+final class FontCoverage {
+
+    static final int PAGE_SHIFT = 8;
+    static final int PAGE_WORDS = (1 << PAGE_SHIFT) / 64;
+    static final int PAGE_COUNT = (Character.MAX_CODE_POINT + 1) >>> PAGE_SHIFT;
+
+    private static final long[] EMPTY_PAGE = new long[PAGE_WORDS];
+
+    private final AtomicReferenceArray<long[]> pages = new AtomicReferenceArray<>(PAGE_COUNT);
+    // whether pages have been computed, which have not been persisted yet
+    private volatile boolean modified;
+
+    /**
+     * Returns whether the font of the peer is able to display the specified code point. Invalid
+     * code points are never covered.
+     */
+    boolean covers(@NotNull SunFontAccessorImpl.FontPeer peer, int codePoint) {
+        if (codePoint < 0 || codePoint > Character.MAX_CODE_POINT) {
+            return false;
+        }
+
+        long[] page = pages.get(codePoint >>> PAGE_SHIFT);
+        if (page == null) {
+            page = computePage(peer, codePoint >>> PAGE_SHIFT);
+        }
+
+        int bit = codePoint & ((1 << PAGE_SHIFT) - 1);
+        return (page[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    @NotNull
+    private long[] computePage(@NotNull SunFontAccessorImpl.FontPeer peer, int index) {
+        Font2D font2D = FontAccess.getFontAccess().getFont2D(peer.getFont());
+
+        long[] page = new long[PAGE_WORDS];
+        boolean empty = true;
+
+        int base = index << PAGE_SHIFT;
+        for (int bit = 0; bit < (1 << PAGE_SHIFT); bit++) {
+            if (font2D.canDisplay(base + bit)) {
+                page[bit >>> 6] |= 1L << bit;
+                empty = false;
+            }
+        }
+
+        // pages computed concurrently are equal, whichever is stored first is kept
+        if (!pages.compareAndSet(index, null, empty ? EMPTY_PAGE : page)) {
+            return pages.get(index);
+        }
+
+        modified = true;
+        return empty ? EMPTY_PAGE : page;
+    }
+
+    /**
+     * Returns the computed page at the specified index or {@code null}, if it has not been
+     * computed yet.
+     */
+    @Nullable
+    long[] getPage(int index) {
+        return pages.get(index);
+    }
+
+    /**
+     * Restores a page previously obtained through {@link #getPage(int)}.
+     */
+    void restorePage(int index, @NotNull long[] page) {
+        pages.compareAndSet(index, null, isEmpty(page) ? EMPTY_PAGE : page);
+    }
+
+    boolean isModified() {
+        return modified;
+    }
+
+    void markPersisted() {
+        modified = false;
+    }
+
+    private static boolean isEmpty(@NotNull long[] page) {
+        for (long word : page) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.io.File;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Well-known locations of system and user fonts as well as of the fontconfig configuration.
+ * The directories are determined without consulting the FontManager, which allows them to
+ * be inspected before the font system has been initialized.
+ */
+final class FontDirectories {
+
+    private FontDirectories() {
+    }
+
+    @NotNull
+    static List<File> getFontDirectories() {
+        return AccessController.doPrivileged((PrivilegedAction<List<File>>) () -> {
+            List<File> directories = new ArrayList<>();
+
+            String userHome = System.getProperty("user.home");
+            String osName = System.getProperty("os.name", "").toLowerCase(Locale.ENGLISH);
+
+            if (osName.startsWith("windows")) {
+                String windowsDirectory = System.getenv("WINDIR");
+                if (windowsDirectory != null) {
+                    directories.add(new File(windowsDirectory, "Fonts"));
+                }
+                String localAppData = System.getenv("LOCALAPPDATA");
+                if (localAppData != null) {
+                    directories.add(new File(localAppData, "Microsoft\\Windows\\Fonts"));
+                }
+            } else if (osName.startsWith("mac")) {
+                directories.add(new File("/System/Library/Fonts"));
+                directories.add(new File("/Library/Fonts"));
+                directories.add(new File(userHome, "Library/Fonts"));
+            } else {
+                directories.add(new File("/usr/share/fonts"));
+                directories.add(new File("/usr/local/share/fonts"));
+                directories.add(new File("/usr/X11R6/lib/X11/fonts"));
+                directories.add(new File(userHome, ".fonts"));
+
+                String dataHome = System.getenv("XDG_DATA_HOME");
+                if (dataHome != null && !dataHome.isEmpty()) {
+                    directories.add(new File(dataHome, "fonts"));
+                } else {
+                    directories.add(new File(userHome, ".local/share/fonts"));
+                }
+            }
+
+            directories.add(new File(System.getProperty("java.home"), "lib" + File.separator + "fonts"));
+
+            return Collections.unmodifiableList(directories);
+        });
+    }
+
+    @NotNull
+    static List<File> getFontConfigLocations() {
+        return AccessController.doPrivileged((PrivilegedAction<List<File>>) () -> {
+            List<File> locations = new ArrayList<>();
+
+            String osName = System.getProperty("os.name", "").toLowerCase(Locale.ENGLISH);
+            if (!osName.startsWith("windows") && !osName.startsWith("mac")) {
+                locations.add(new File("/etc/fonts/fonts.conf"));
+                locations.add(new File("/etc/fonts/local.conf"));
+                locations.add(new File("/etc/fonts/conf.d"));
+
+                String configHome = System.getenv("XDG_CONFIG_HOME");
+                if (configHome != null && !configHome.isEmpty()) {
+                    locations.add(new File(configHome, "fontconfig"));
+                } else {
+                    locations.add(new File(System.getProperty("user.home"), ".config/fontconfig"));
+                }
+                locations.add(new File(System.getProperty("user.home"), ".fonts.conf"));
+            }
+
+            return Collections.unmodifiableList(locations);
+        });
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.Font;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Watches the font directories and the fontconfig configuration for changes and applies the fonts
+ * that have been added or removed since as font extensions on a background thread. Bursts of
+ * changes, as caused by package installations, are debounced and applied at once.
+ * <p>
+ * Only fonts added after the watcher has been started can be removed again, as the FontManager
+ * never forgets about the fonts it has enumerated itself.
+ */
+final class FontDirectoryWatcher {
+
+    private static final long DEBOUNCE_MILLIS = 500;
+
+    private final SunFontAccessorImpl accessor;
+    private final WatchService watchService;
+    private final List<Path> fontDirectories = new ArrayList<>();
+
+    // confined to the watcher thread
+    private final Set<Path> watchedDirectories = new HashSet<>();
+    private Map<Path, FileState> fontFiles;
+    private final Map<Path, Font> addedFonts = new HashMap<>();
+
+    private final Metrics.Timer applyTimer = Metrics.timer("font.watch.apply");
+
+    private FontDirectoryWatcher(@NotNull SunFontAccessorImpl accessor, @NotNull WatchService watchService) {
+        this.accessor = accessor;
+        this.watchService = watchService;
+    }
+
+    /**
+     * Starts watching the font directories, the fonts present at this point are considered to
+     * be known to the FontManager already.
+     */
+    @NotNull
+    static FontDirectoryWatcher start(@NotNull SunFontAccessorImpl accessor) throws IOException {
+        FontDirectoryWatcher watcher = new FontDirectoryWatcher(accessor, FileSystems.getDefault().newWatchService());
+
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            Thread thread = new Thread(watcher::run, "reflare-font-watcher");
+            thread.setDaemon(true);
+            thread.start();
+            return null;
+        });
+
+        return watcher;
+    }
+
+    void stop() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            // the watcher thread terminates regardless
+        }
+    }
+
+    private void run() {
+        // the watcher might already have been stopped before it has been registered
+        try {
+            for (File directory : FontDirectories.getFontDirectories()) {
+                Path path = directory.toPath();
+                fontDirectories.add(path);
+                watchTree(path);
+            }
+            for (File location : FontDirectories.getFontConfigLocations()) {
+                Path path = location.toPath();
+                watchTree(Files.isDirectory(path) ? path : path.getParent());
+            }
+
+            fontFiles = scanFontFiles();
+
+            while (true) {
+                processEvents(watchService.take());
+
+                // wait for the changes to settle
+                WatchKey key;
+                while ((key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    processEvents(key);
+                }
+
+                try {
+                    applyChanges();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // stopped
+        }
+    }
+
+    private void processEvents(@NotNull WatchKey key) {
+        Path directory = (Path) key.watchable();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // directories created within watched directories have to be watched themselves
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                Path path = directory.resolve((Path) event.context());
+                if (Files.isDirectory(path)) {
+                    watchTree(path);
+                }
+            }
+        }
+
+        if (!key.reset()) {
+            watchedDirectories.remove(directory);
+        }
+    }
+
+    private void watchTree(@Nullable Path root) {
+        if (root == null || !Files.isDirectory(root)) {
+            return;
+        }
+
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (watchedDirectories.add(dir)) {
+                        dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                                StandardWatchEventKinds.ENTRY_MODIFY);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            // directories that cannot be watched are picked up on the next startup
+        }
+    }
+
+    /**
+     * Compares the font files with the ones seen last and registers the fonts of added files as
+     * well as unregisters the fonts of removed files, which had been added before. Modified files
+     * are considered to be removed and added again.
+     */
+    private void applyChanges() {
+        long start = Metrics.start();
+
+        Map<Path, FileState> current = scanFontFiles();
+
+        List<Font> removed = new ArrayList<>();
+        List<Path> added = new ArrayList<>();
+
+        for (Map.Entry<Path, FileState> entry : fontFiles.entrySet()) {
+            FileState state = current.get(entry.getKey());
+            if (state == null || !state.equals(entry.getValue())) {
+                Font font = addedFonts.remove(entry.getKey());
+                if (font != null) {
+                    removed.add(font);
+                }
+            }
+        }
+        for (Map.Entry<Path, FileState> entry : current.entrySet()) {
+            FileState state = fontFiles.get(entry.getKey());
+            if (state == null || !state.equals(entry.getValue())) {
+                added.add(entry.getKey());
+            }
+        }
+
+        fontFiles = current;
+
+        if (!removed.isEmpty()) {
+            accessor.unregisterFontExtensions(removed);
+        }
+
+        List<Font> fonts = new ArrayList<>(added.size());
+        for (Path path : added) {
+            Font font = FontLoader.load(path);
+            if (font != null) {
+                addedFonts.put(path, font);
+                fonts.add(font);
+            }
+        }
+
+        if (!fonts.isEmpty()) {
+            accessor.registerFontExtensions(fonts, false);
+        }
+
+        applyTimer.record(start);
+    }
+
+    @NotNull
+    private Map<Path, FileState> scanFontFiles() {
+        Map<Path, FileState> fontFiles = new HashMap<>();
+
+        for (Path directory : fontDirectories) {
+            if (!Files.isDirectory(directory)) {
+                continue;
+            }
+
+            try {
+                Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (attrs.isRegularFile() && FontLoader.isFontFile(file)) {
+                            fontFiles.put(file, new FileState(attrs.lastModifiedTime().toMillis(), attrs.size()));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                // unreadable directories contribute no fonts
+            }
+        }
+
+        return fontFiles;
+    }
+
+    private static final class FileState {
+
+        final long lastModified;
+        final long size;
+
+        FileState(long lastModified, long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FileState)) {
+                return false;
+            }
+            FileState that = (FileState) o;
+            return lastModified == that.lastModified && size == that.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(lastModified) + Long.hashCode(size);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.Font;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.fernice.reflare.internal.impl.SunFontAccessorImpl.FontPeer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Immutable lookup structure over the merged font families. Family names are matched
+ * case-insensitively without allocating and the nearest weight is found by binary search.
+ * Results are memoized in a small direct-mapped cache, which is discarded together with
+ * the index whenever the font families are recomputed. Indices are derived from one another
+ * so that recomputing some font families does not require rebuilding all of them.
+ */
+final class FontFamilyIndex {
+
+    static final FontFamilyIndex EMPTY = new FontFamilyIndex(new String[1], new FontFamily[1], 0);
+
+    private static final int CACHE_SIZE = 512;
+
+    private final String[] names;
+    private final FontFamily[] families;
+    private final int mask;
+    private final int size;
+
+    private final CacheEntry[] cache = new CacheEntry[CACHE_SIZE];
+
+    private FontFamilyIndex(@NotNull String[] names, @NotNull FontFamily[] families, int size) {
+        this.names = names;
+        this.families = families;
+        this.mask = names.length - 1;
+        this.size = size;
+    }
+
+    @NotNull
+    static FontFamilyIndex build(@NotNull Map<String, List<FontPeer>> fontFamilies) {
+        return EMPTY.derive(fontFamilies);
+    }
+
+    /**
+     * Derives a new index, in which the specified font families replace or complement the font
+     * families of this index. Font families that are not replaced are shared with this index.
+     */
+    @NotNull
+    FontFamilyIndex derive(@NotNull Map<String, List<FontPeer>> fontFamilies) {
+        String[] names;
+        FontFamily[] families;
+
+        int required = size + fontFamilies.size();
+        if (required * 2 > this.names.length) {
+            int capacity = Integer.highestOneBit(required * 2 - 1) << 1;
+
+            names = new String[capacity];
+            families = new FontFamily[capacity];
+
+            for (int i = 0; i < this.names.length; i++) {
+                if (this.names[i] != null) {
+                    insert(names, families, this.names[i], this.families[i]);
+                }
+            }
+        } else {
+            names = this.names.clone();
+            families = this.families.clone();
+        }
+
+        int size = this.size;
+        for (Map.Entry<String, List<FontPeer>> entry : fontFamilies.entrySet()) {
+            if (insert(names, families, entry.getKey(), FontFamily.build(entry.getValue()))) {
+                size++;
+            }
+        }
+
+        return new FontFamilyIndex(names, families, size);
+    }
+
+    private static boolean insert(@NotNull String[] names, @NotNull FontFamily[] families, @NotNull String name, @NotNull FontFamily family) {
+        int mask = names.length - 1;
+        int slot = hash(name) & mask;
+        while (names[slot] != null) {
+            if (matches(names[slot], name)) {
+                families[slot] = family;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        names[slot] = name;
+        families[slot] = family;
+        return true;
+    }
+
+    /**
+     * Returns the font of the specified family that is closest to the specified weight. Ties
+     * in weight distance are resolved in favor of the font that was merged into the family first.
+     */
+    @Nullable
+    Font find(@NotNull String family, int weight, boolean italic) {
+        int slot = (family.hashCode() * 31 + weight) * 2 + (italic ? 1 : 0);
+        slot = (slot ^ (slot >>> 16)) & (CACHE_SIZE - 1);
+
+        CacheEntry entry = cache[slot];
+        if (entry != null && entry.weight == weight && entry.italic == italic && entry.family.equals(family)) {
+            return entry.font;
+        }
+
+        FontFamily fontFamily = getFamily(family);
+        Font font = fontFamily != null ? fontFamily.find(weight, italic) : null;
+
+        cache[slot] = new CacheEntry(family, weight, italic, font);
+
+        return font;
+    }
+
+    /**
+     * Returns the peer of the font that {@link #find(String, int, boolean)} would return, without
+     * consulting the cache.
+     */
+    @Nullable
+    FontPeer findPeer(@NotNull String family, int weight, boolean italic) {
+        FontFamily fontFamily = getFamily(family);
+        return fontFamily != null ? fontFamily.findPeer(weight, italic) : null;
+    }
+
+    @Nullable
+    FontFamily getFamily(@NotNull String family) {
+        int slot = hash(family) & mask;
+        String name;
+        while ((name = names[slot]) != null) {
+            if (matches(name, family)) {
+                return families[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static int hash(@NotNull String name) {
+        int hash = 0;
+        for (int i = 0, length = name.length(); i < length; i++) {
+            hash = 31 * hash + Character.toLowerCase(name.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(@NotNull String name, @NotNull String family) {
+        int length = name.length();
+        if (length != family.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char a = name.charAt(i);
+            char b = family.charAt(i);
+            if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static final class FontFamily {
+
+        private final FontFaces upright;
+        private final FontFaces italic;
+
+        private FontFamily(@NotNull FontFaces upright, @NotNull FontFaces italic) {
+            this.upright = upright;
+            this.italic = italic;
+        }
+
+        @NotNull
+        static FontFamily build(@NotNull List<FontPeer> fonts) {
+            return new FontFamily(FontFaces.build(fonts, false), FontFaces.build(fonts, true));
+        }
+
+        @Nullable
+        Font find(int weight, boolean italic) {
+            return (italic ? this.italic : upright).find(weight);
+        }
+
+        @Nullable
+        FontPeer findPeer(int weight, boolean italic) {
+            return (italic ? this.italic : upright).findPeer(weight);
+        }
+    }
+
+    private static final class FontFaces {
+
+        // sorted, distinct weights with the first font of that weight
+        // and its position in the merged family for tie breaking
+        private final int[] weights;
+        private final FontPeer[] fonts;
+        private final int[] ranks;
+
+        private FontFaces(@NotNull int[] weights, @NotNull FontPeer[] fonts, @NotNull int[] ranks) {
+            this.weights = weights;
+            this.fonts = fonts;
+            this.ranks = ranks;
+        }
+
+        @NotNull
+        static FontFaces build(@NotNull List<FontPeer> fonts, boolean italic) {
+            TreeMap<Integer, Integer> firstByWeight = new TreeMap<>();
+            for (int i = 0; i < fonts.size(); i++) {
+                FontPeer font = fonts.get(i);
+                if (font.italic == italic) {
+                    firstByWeight.putIfAbsent(font.weight, i);
+                }
+            }
+
+            int[] weights = new int[firstByWeight.size()];
+            FontPeer[] faces = new FontPeer[weights.length];
+            int[] ranks = new int[weights.length];
+
+            int index = 0;
+            for (Map.Entry<Integer, Integer> entry : firstByWeight.entrySet()) {
+                weights[index] = entry.getKey();
+                ranks[index] = entry.getValue();
+                faces[index] = fonts.get(entry.getValue());
+                index++;
+            }
+
+            return new FontFaces(weights, faces, ranks);
+        }
+
+        @Nullable
+        Font find(int weight) {
+            FontPeer font = findPeer(weight);
+            return font != null ? font.getFont() : null;
+        }
+
+        @Nullable
+        FontPeer findPeer(int weight) {
+            int length = weights.length;
+            if (length == 0) {
+                return null;
+            }
+
+            int index = Arrays.binarySearch(weights, weight);
+            if (index >= 0) {
+                return fonts[index];
+            }
+
+            int upper = -index - 1;
+            int lower = upper - 1;
+            if (lower < 0) {
+                return fonts[upper];
+            }
+            if (upper >= length) {
+                return fonts[lower];
+            }
+
+            int lowerDistance = weight - weights[lower];
+            int upperDistance = weights[upper] - weight;
+            if (lowerDistance != upperDistance) {
+                return lowerDistance < upperDistance ? fonts[lower] : fonts[upper];
+            }
+            return ranks[lower] < ranks[upper] ? fonts[lower] : fonts[upper];
+        }
+    }
+
+    private static final class CacheEntry {
+
+        final String family;
+        final int weight;
+        final boolean italic;
+        final Font font;
+
+        CacheEntry(@NotNull String family, int weight, boolean italic, @Nullable Font font) {
+            this.family = family;
+            this.weight = weight;
+            this.italic = italic;
+            this.font = font;
+        }
+    }
+}
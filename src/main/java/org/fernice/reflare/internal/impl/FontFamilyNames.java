@@ -0,0 +1,218 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Derives the alias font families of a font family from the weight names contained in its name.
+ * All weight names are matched in a single pass over the family name using an Aho-Corasick
+ * automaton instead of searching for every weight name individually.
+ */
+final class FontFamilyNames {
+
+    private static final String[] WEIGHT_NAMES = { //
+            "thin", "light", "ultralight", "ultra light", "ultra-light", //
+            "extralight", "extlt", "extra light", "extra-light", //
+            "demilight", "demi light", "demi-light", //
+            "normal", "regular", "medium", "med", //
+            "bold", "heavy", "black", "blk", //
+            "semibold", "sembd", "semi bold", "semi-bold", //
+            "demibold", "demi", "demi bold", "demi-bold", //
+            "extrabold", "extbd", "extra bold", "extra-bold", //
+            "ultrabold", "ultra bold", "ultra-bold", //
+    };
+
+    private static final int SYMBOLS = 28;
+
+    // complete transition function of the automaton, indexed by state * SYMBOLS + symbol
+    private static final int[] transitions;
+    // indices of all weight names ending in a state, including those of its suffix states
+    private static final int[][] outputs;
+
+    static {
+        int maxStates = 1;
+        for (String weightName : WEIGHT_NAMES) {
+            maxStates += weightName.length();
+        }
+
+        int[] trie = new int[maxStates * SYMBOLS];
+        Arrays.fill(trie, -1);
+        int[][] matches = new int[maxStates][];
+        int states = 1;
+
+        for (int i = 0; i < WEIGHT_NAMES.length; i++) {
+            String weightName = WEIGHT_NAMES[i];
+
+            int state = 0;
+            for (int j = 0; j < weightName.length(); j++) {
+                int index = state * SYMBOLS + symbol(weightName.charAt(j));
+                if (trie[index] < 0) {
+                    trie[index] = states++;
+                }
+                state = trie[index];
+            }
+            matches[state] = append(matches[state], i);
+        }
+
+        int[] failures = new int[states];
+        Deque<Integer> queue = new ArrayDeque<>();
+
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            int next = trie[symbol];
+            if (next < 0) {
+                trie[symbol] = 0;
+            } else {
+                failures[next] = 0;
+                queue.add(next);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+
+            matches[state] = concat(matches[state], matches[failures[state]]);
+
+            for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+                int index = state * SYMBOLS + symbol;
+                int next = trie[index];
+                if (next < 0) {
+                    trie[index] = trie[failures[state] * SYMBOLS + symbol];
+                } else {
+                    failures[next] = trie[failures[state] * SYMBOLS + symbol];
+                    queue.add(next);
+                }
+            }
+        }
+
+        for (int state = 0; state < states; state++) {
+            if (matches[state] == null) {
+                matches[state] = new int[0];
+            } else {
+                Arrays.sort(matches[state]);
+            }
+        }
+
+        transitions = Arrays.copyOf(trie, states * SYMBOLS);
+        outputs = Arrays.copyOf(matches, states);
+    }
+
+    private FontFamilyNames() {
+    }
+
+    /**
+     * Returns the names of all font families a font of the specified family belongs to, which
+     * are its own family and, for every weight name contained in the family, the prefix of the
+     * family preceding the first occurrence of that weight name. The names are ordered by weight
+     * name and a name may occur more than once, in which case the font is also merged more than once.
+     *
+     * @param familyName the lowercase name of the family
+     * @return the names of the font families
+     */
+    @NotNull
+    static String[] getFamilyNames(@NotNull String familyName) {
+        int[] starts = null;
+
+        int state = 0;
+        for (int i = 0, length = familyName.length(); i < length; i++) {
+            int symbol = symbol(familyName.charAt(i));
+            if (symbol < 0) {
+                state = 0;
+                continue;
+            }
+
+            state = transitions[state * SYMBOLS + symbol];
+
+            for (int weightName : outputs[state]) {
+                if (starts == null) {
+                    starts = new int[WEIGHT_NAMES.length];
+                    Arrays.fill(starts, -1);
+                }
+                if (starts[weightName] < 0) {
+                    starts[weightName] = i - WEIGHT_NAMES[weightName].length() + 1;
+                }
+            }
+        }
+
+        if (starts == null) {
+            return new String[]{familyName};
+        }
+
+        List<String> familyNames = new ArrayList<>(4);
+        familyNames.add(familyName);
+
+        int[] prefixStarts = new int[WEIGHT_NAMES.length];
+        String[] prefixes = new String[WEIGHT_NAMES.length];
+        int prefixCount = 0;
+
+        for (int start : starts) {
+            if (start < 0) {
+                continue;
+            }
+
+            String prefix = null;
+            for (int i = 0; i < prefixCount; i++) {
+                if (prefixStarts[i] == start) {
+                    prefix = prefixes[i];
+                    break;
+                }
+            }
+
+            if (prefix == null) {
+                prefix = familyName.substring(0, start).trim();
+
+                prefixStarts[prefixCount] = start;
+                prefixes[prefixCount] = prefix;
+                prefixCount++;
+            }
+
+            familyNames.add(prefix);
+        }
+
+        return familyNames.toArray(new String[0]);
+    }
+
+    private static int symbol(char c) {
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a';
+        }
+        if (c == ' ') {
+            return 26;
+        }
+        if (c == '-') {
+            return 27;
+        }
+        return -1;
+    }
+
+    @NotNull
+    private static int[] append(int[] array, int value) {
+        if (array == null) {
+            return new int[]{value};
+        }
+        int[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+
+    private static int[] concat(int[] first, int[] second) {
+        if (second == null || second.length == 0) {
+            return first;
+        }
+        if (first == null) {
+            return second.clone();
+        }
+        int[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.Font;
+import java.awt.FontFormatException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Creates the fonts of all font files contained in a directory or a resource directory. The files
+ * are parsed in parallel on the common pool. Files of the default file system are handed to the
+ * font system as files, which then reads them in place, while files of other file systems, such
+ * as the contents of a jar, are streamed through their file system's channel.
+ */
+final class FontLoader {
+
+    private static final Metrics.Timer loadTimer = Metrics.timer("font.load");
+    private static final Metrics.Counter loadedFonts = Metrics.counter("font.loaded");
+
+    private FontLoader() {
+    }
+
+    /**
+     * Creates the fonts of all font files in the directory and its subdirectories in the order of
+     * their paths. Files that cannot be parsed are skipped.
+     */
+    @NotNull
+    static List<Font> loadDirectory(@NotNull Path directory) throws IOException {
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            files = paths.filter((path) -> isFontFile(path) && Files.isRegularFile(path)).sorted().collect(Collectors.toList());
+        }
+
+        // the order of the files is retained, as it determines the order the fonts are merged in
+        return files.parallelStream().map(FontLoader::load).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    /**
+     * Creates the fonts of all font files in the resource directory and its subdirectories in
+     * every location of the class loader the directory is found at, which may be directories or
+     * jars. Files that cannot be parsed are skipped.
+     */
+    @NotNull
+    static List<Font> loadResources(@NotNull ClassLoader classLoader, @NotNull String directory) throws IOException {
+        String name = directory.startsWith("/") ? directory.substring(1) : directory;
+        if (!name.isEmpty() && !name.endsWith("/")) {
+            name = name + "/";
+        }
+
+        List<Font> fonts = new ArrayList<>();
+
+        Enumeration<URL> urls = classLoader.getResources(name);
+        while (urls.hasMoreElements()) {
+            URI uri;
+            try {
+                uri = urls.nextElement().toURI();
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+
+            if ("file".equals(uri.getScheme())) {
+                fonts.addAll(loadDirectory(Paths.get(uri)));
+            } else if ("jar".equals(uri.getScheme())) {
+                FileSystem fileSystem;
+                boolean created;
+                try {
+                    fileSystem = FileSystems.newFileSystem(uri, Collections.<String, Object>emptyMap());
+                    created = true;
+                } catch (FileSystemAlreadyExistsException e) {
+                    fileSystem = FileSystems.getFileSystem(uri);
+                    created = false;
+                }
+
+                try {
+                    fonts.addAll(loadDirectory(fileSystem.provider().getPath(uri)));
+                } finally {
+                    if (created) {
+                        fileSystem.close();
+                    }
+                }
+            }
+        }
+
+        return fonts;
+    }
+
+    /**
+     * Creates the font of the font file or returns {@code null}, if it cannot be parsed.
+     */
+    @Nullable
+    static Font load(@NotNull Path path) {
+        long start = Metrics.start();
+        try {
+            int format = getFontFormat(path);
+
+            Font font;
+            if (path.getFileSystem() == FileSystems.getDefault()) {
+                font = Font.createFont(format, path.toFile());
+            } else {
+                // the font system copies streamed fonts into a temporary file of its own
+                try (InputStream input = Files.newInputStream(path)) {
+                    font = Font.createFont(format, input);
+                }
+            }
+
+            loadedFonts.increment();
+            return font;
+        } catch (IOException | FontFormatException e) {
+            return null;
+        } finally {
+            loadTimer.record(start);
+        }
+    }
+
+    static boolean isFontFile(@NotNull Path path) {
+        return getFontFormat(path) >= 0;
+    }
+
+    private static int getFontFormat(@NotNull Path path) {
+        Path fileName = path.getFileName();
+        if (fileName == null) {
+            return -1;
+        }
+
+        // Font.createFont only creates the first font of a TrueType collection, collections are
+        // skipped rather than registered with all other fonts silently missing
+        String name = fileName.toString().toLowerCase(Locale.ENGLISH);
+        if (name.endsWith(".ttf") || name.endsWith(".otf")) {
+            return Font.TRUETYPE_FONT;
+        }
+        if (name.endsWith(".pfa") || name.endsWith(".pfb")) {
+            return Font.TYPE1_FONT;
+        }
+        return -1;
+    }
+}
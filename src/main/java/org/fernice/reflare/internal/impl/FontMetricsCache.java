@@ -0,0 +1,343 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineMetrics;
+import java.awt.geom.Rectangle2D;
+import java.text.CharacterIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.jetbrains.annotations.NotNull;
+import sun.font.Font2D;
+import sun.font.FontDesignMetrics;
+import sun.font.FontUtilities;
+
+/**
+ * Cache of shared font metrics keyed on the font and the font render context. The metrics
+ * memoize the widths of the strings they have measured, so that measuring the same text again
+ * is a single lookup in a table keyed on the hash of the string.
+ */
+final class FontMetricsCache {
+
+    // the cache is dropped as a whole once it exceeds this number of metrics
+    private static final int MAX_METRICS = 512;
+
+    private final Map<Key, CachedFontMetrics> metrics = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @NotNull
+    FontMetrics getFontMetrics(@NotNull Font font, @NotNull FontRenderContext frc) {
+        Key key = new Key(font, FontUtilities.getFont2D(font), frc);
+
+        CachedFontMetrics fontMetrics = metrics.get(key);
+        if (fontMetrics != null) {
+            hits.increment();
+            return fontMetrics;
+        }
+
+        misses.increment();
+
+        if (metrics.size() >= MAX_METRICS) {
+            metrics.clear();
+        }
+
+        fontMetrics = new CachedFontMetrics(FontDesignMetrics.getMetrics(font, frc));
+        CachedFontMetrics previous = metrics.putIfAbsent(key, fontMetrics);
+
+        return previous != null ? previous : fontMetrics;
+    }
+
+    /**
+     * Evicts the metrics of all fonts backed by any of the specified physical fonts.
+     */
+    void evict(@NotNull Set<Font2D> fonts) {
+        metrics.keySet().removeIf((key) -> fonts.contains(key.font2D));
+    }
+
+    void clear() {
+        metrics.clear();
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    private static final class Key {
+
+        private final Font font;
+        private final Font2D font2D;
+        private final FontRenderContext frc;
+        private final int hash;
+
+        Key(@NotNull Font font, @NotNull Font2D font2D, @NotNull FontRenderContext frc) {
+            this.font = font;
+            this.font2D = font2D;
+            this.frc = frc;
+            this.hash = (font.hashCode() * 31 + System.identityHashCode(font2D)) * 31 + frc.hashCode();
+        }
+
+        // fonts equal by name may still be backed by different physical fonts
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash && font2D == key.font2D && font.equals(key.font) && frc.equals(key.frc);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Font metrics delegating to the metrics of the font, which memoize the width of strings in an
+     * open addressing table. The table is reset, once it is full.
+     */
+    private static final class CachedFontMetrics extends FontMetrics {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int INITIAL_CAPACITY = 64;
+        private static final int MAX_CAPACITY = 4096;
+
+        private final FontMetrics delegate;
+
+        // guarded by this, the capacity is a power of two and the table is at most half full
+        private int[] hashes = new int[INITIAL_CAPACITY];
+        private String[] strings = new String[INITIAL_CAPACITY];
+        private int[] widths = new int[INITIAL_CAPACITY];
+        private int size;
+
+        CachedFontMetrics(@NotNull FontMetrics delegate) {
+            super(delegate.getFont());
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int stringWidth(String str) {
+            int hash = str.hashCode();
+
+            synchronized (this) {
+                int mask = strings.length - 1;
+                for (int i = mix(hash) & mask; strings[i] != null; i = (i + 1) & mask) {
+                    if (hashes[i] == hash && strings[i].equals(str)) {
+                        return widths[i];
+                    }
+                }
+            }
+
+            int width = delegate.stringWidth(str);
+
+            synchronized (this) {
+                if ((size + 1) * 2 > strings.length) {
+                    if (strings.length < MAX_CAPACITY) {
+                        rehash(strings.length * 2);
+                    } else {
+                        rehash(INITIAL_CAPACITY);
+                        size = 0;
+                    }
+                }
+
+                int mask = strings.length - 1;
+                int i = mix(hash) & mask;
+                while (strings[i] != null) {
+                    if (hashes[i] == hash && strings[i].equals(str)) {
+                        return width;
+                    }
+                    i = (i + 1) & mask;
+                }
+
+                hashes[i] = hash;
+                strings[i] = str;
+                widths[i] = width;
+                size++;
+            }
+
+            return width;
+        }
+
+        // guarded by this
+        private void rehash(int capacity) {
+            int[] oldHashes = hashes;
+            String[] oldStrings = strings;
+            int[] oldWidths = widths;
+
+            hashes = new int[capacity];
+            strings = new String[capacity];
+            widths = new int[capacity];
+
+            if (capacity < oldStrings.length) {
+                return;
+            }
+
+            int mask = capacity - 1;
+            for (int j = 0; j < oldStrings.length; j++) {
+                if (oldStrings[j] == null) {
+                    continue;
+                }
+
+                int i = mix(oldHashes[j]) & mask;
+                while (strings[i] != null) {
+                    i = (i + 1) & mask;
+                }
+
+                hashes[i] = oldHashes[j];
+                strings[i] = oldStrings[j];
+                widths[i] = oldWidths[j];
+            }
+        }
+
+        private static int mix(int hash) {
+            hash *= 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+
+        @Override
+        public FontRenderContext getFontRenderContext() {
+            return delegate.getFontRenderContext();
+        }
+
+        @Override
+        public int getLeading() {
+            return delegate.getLeading();
+        }
+
+        @Override
+        public int getAscent() {
+            return delegate.getAscent();
+        }
+
+        @Override
+        public int getDescent() {
+            return delegate.getDescent();
+        }
+
+        @Override
+        public int getHeight() {
+            return delegate.getHeight();
+        }
+
+        @Override
+        public int getMaxAscent() {
+            return delegate.getMaxAscent();
+        }
+
+        @Override
+        public int getMaxDescent() {
+            return delegate.getMaxDescent();
+        }
+
+        @Override
+        @Deprecated
+        public int getMaxDecent() {
+            return delegate.getMaxDecent();
+        }
+
+        @Override
+        public int getMaxAdvance() {
+            return delegate.getMaxAdvance();
+        }
+
+        @Override
+        public int charWidth(int codePoint) {
+            return delegate.charWidth(codePoint);
+        }
+
+        @Override
+        public int charWidth(char ch) {
+            return delegate.charWidth(ch);
+        }
+
+        @Override
+        public int charsWidth(char[] data, int off, int len) {
+            return delegate.charsWidth(data, off, len);
+        }
+
+        @Override
+        public int bytesWidth(byte[] data, int off, int len) {
+            return delegate.bytesWidth(data, off, len);
+        }
+
+        @Override
+        public int[] getWidths() {
+            return delegate.getWidths();
+        }
+
+        @Override
+        public boolean hasUniformLineMetrics() {
+            return delegate.hasUniformLineMetrics();
+        }
+
+        @Override
+        public LineMetrics getLineMetrics(String str, Graphics context) {
+            return delegate.getLineMetrics(str, context);
+        }
+
+        @Override
+        public LineMetrics getLineMetrics(String str, int beginIndex, int limit, Graphics context) {
+            return delegate.getLineMetrics(str, beginIndex, limit, context);
+        }
+
+        @Override
+        public LineMetrics getLineMetrics(char[] chars, int beginIndex, int limit, Graphics context) {
+            return delegate.getLineMetrics(chars, beginIndex, limit, context);
+        }
+
+        @Override
+        public LineMetrics getLineMetrics(CharacterIterator ci, int beginIndex, int limit, Graphics context) {
+            return delegate.getLineMetrics(ci, beginIndex, limit, context);
+        }
+
+        @Override
+        public Rectangle2D getStringBounds(String str, Graphics context) {
+            return delegate.getStringBounds(str, context);
+        }
+
+        @Override
+        public Rectangle2D getStringBounds(String str, int beginIndex, int limit, Graphics context) {
+            return delegate.getStringBounds(str, beginIndex, limit, context);
+        }
+
+        @Override
+        public Rectangle2D getStringBounds(char[] chars, int beginIndex, int limit, Graphics context) {
+            return delegate.getStringBounds(chars, beginIndex, limit, context);
+        }
+
+        @Override
+        public Rectangle2D getStringBounds(CharacterIterator ci, int beginIndex, int limit, Graphics context) {
+            return delegate.getStringBounds(ci, beginIndex, limit, context);
+        }
+
+        @Override
+        public Rectangle2D getMaxCharBounds(Graphics context) {
+            return delegate.getMaxCharBounds(context);
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+}
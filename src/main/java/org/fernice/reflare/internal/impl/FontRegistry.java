@@ -0,0 +1,300 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.Font;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.fernice.reflare.internal.impl.SunFontAccessorImpl.FontPeer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Immutable, versioned snapshot of all known fonts. Every modification derives a new snapshot
+ * with an incremented version, leaving the current snapshot untouched, so that snapshots can be
+ * published and read without any locking.
+ */
+final class FontRegistry {
+
+    static final FontRegistry EMPTY = new FontRegistry(0, null, Collections.<Font, FontExtension>emptyMap(),
+            Collections.<Font, FontExtension>emptyMap(), FontFamilyIndex.EMPTY);
+
+    static final int MERGING_STRATEGY_KEEP = 1;
+    static final int MERGING_STRATEGY_OVERRIDE = 2;
+
+    final long version;
+
+    @Nullable
+    final Map<String, List<FontPeer>> systemFontFamilies;
+
+    // insertion ordered, extensions are merged in the order of their registration
+    @NotNull
+    final Map<Font, FontExtension> fontExtensions;
+    @NotNull
+    final Map<Font, FontExtension> fontExtensionOverrides;
+
+    @NotNull
+    final FontFamilyIndex fontFamilyIndex;
+
+    private FontRegistry(long version, @Nullable Map<String, List<FontPeer>> systemFontFamilies, @NotNull Map<Font, FontExtension> fontExtensions,
+                         @NotNull Map<Font, FontExtension> fontExtensionOverrides, @NotNull FontFamilyIndex fontFamilyIndex) {
+        this.version = version;
+        this.systemFontFamilies = systemFontFamilies;
+        this.fontExtensions = fontExtensions;
+        this.fontExtensionOverrides = fontExtensionOverrides;
+        this.fontFamilyIndex = fontFamilyIndex;
+    }
+
+    /**
+     * Derives a snapshot based on the specified system font families, in which all font families
+     * are merged again.
+     */
+    @NotNull
+    FontRegistry withSystemFontFamilies(@NotNull Map<String, List<FontPeer>> systemFontFamilies) {
+        Map<String, FontFamilyBuilder> builders = new HashMap<>();
+
+        mergeFontFamilies(builders, systemFontFamilies, fontExtensions.values(), MERGING_STRATEGY_KEEP, Collections.<Font>emptySet());
+        mergeFontFamilies(builders, systemFontFamilies, fontExtensionOverrides.values(), MERGING_STRATEGY_OVERRIDE, Collections.<Font>emptySet());
+
+        // only the font families affected by font extensions differ from the system font families
+        Map<String, List<FontPeer>> fontFamilies = new HashMap<>(systemFontFamilies);
+        for (Map.Entry<String, FontFamilyBuilder> entry : builders.entrySet()) {
+            fontFamilies.put(entry.getKey(), entry.getValue().fonts);
+        }
+
+        return new FontRegistry(version + 1, systemFontFamilies, fontExtensions, fontExtensionOverrides, FontFamilyIndex.build(fontFamilies));
+    }
+
+    /**
+     * Derives a snapshot, in which the specified font extensions are registered. Only the font
+     * families the font extensions belong to are merged again.
+     */
+    @NotNull
+    Update withFontExtensions(@NotNull Collection<FontExtension> extensions, boolean override) {
+        Map<Font, FontExtension> fontExtensions = new LinkedHashMap<>(this.fontExtensions);
+        Map<Font, FontExtension> fontExtensionOverrides = new LinkedHashMap<>(this.fontExtensionOverrides);
+
+        Map<Font, FontExtension> registry = override ? fontExtensionOverrides : fontExtensions;
+        Map<Font, FontExtension> counterpart = override ? fontExtensions : fontExtensionOverrides;
+
+        Set<String> familyNames = new LinkedHashSet<>();
+        Set<Font> targets = new HashSet<>();
+
+        for (FontExtension extension : extensions) {
+            FontExtension previous = counterpart.remove(extension.font);
+            if (previous != null) {
+                Collections.addAll(familyNames, previous.familyNames);
+            }
+
+            if (!registry.containsKey(extension.font)) {
+                registry.put(extension.font, extension);
+                Collections.addAll(familyNames, extension.familyNames);
+                targets.add(extension.font);
+            }
+        }
+
+        if (familyNames.isEmpty()) {
+            return new Update(this, false);
+        }
+
+        return derive(fontExtensions, fontExtensionOverrides, familyNames, targets);
+    }
+
+    /**
+     * Derives a snapshot, in which the specified fonts are no longer registered as font extensions.
+     * Only the font families the fonts belonged to are merged again.
+     */
+    @NotNull
+    Update withoutFontExtensions(@NotNull Collection<Font> fonts) {
+        Map<Font, FontExtension> fontExtensions = new LinkedHashMap<>(this.fontExtensions);
+        Map<Font, FontExtension> fontExtensionOverrides = new LinkedHashMap<>(this.fontExtensionOverrides);
+
+        Set<String> familyNames = new LinkedHashSet<>();
+
+        for (Font font : fonts) {
+            FontExtension extension = fontExtensions.remove(font);
+            if (extension == null) {
+                extension = fontExtensionOverrides.remove(font);
+            }
+
+            if (extension != null) {
+                Collections.addAll(familyNames, extension.familyNames);
+            }
+        }
+
+        if (familyNames.isEmpty()) {
+            return new Update(this, false);
+        }
+
+        Update update = derive(fontExtensions, fontExtensionOverrides, familyNames, Collections.<Font>emptySet());
+
+        return new Update(update.registry, true);
+    }
+
+    @NotNull
+    private Update derive(@NotNull Map<Font, FontExtension> fontExtensions, @NotNull Map<Font, FontExtension> fontExtensionOverrides,
+                          @NotNull Set<String> familyNames, @NotNull Set<Font> targets) {
+        fontExtensions = Collections.unmodifiableMap(fontExtensions);
+        fontExtensionOverrides = Collections.unmodifiableMap(fontExtensionOverrides);
+
+        // without system fonts there is nothing to merge yet
+        if (systemFontFamilies == null) {
+            return new Update(new FontRegistry(version + 1, null, fontExtensions, fontExtensionOverrides, fontFamilyIndex), false);
+        }
+
+        Map<String, FontFamilyBuilder> builders = new HashMap<>(familyNames.size() * 4 / 3 + 1);
+        for (String familyName : familyNames) {
+            builders.put(familyName, new FontFamilyBuilder(systemFontFamilies.get(familyName)));
+        }
+
+        boolean targetResult = mergeFontFamilies(builders, null, fontExtensions.values(), MERGING_STRATEGY_KEEP, targets);
+        targetResult |= mergeFontFamilies(builders, null, fontExtensionOverrides.values(), MERGING_STRATEGY_OVERRIDE, targets);
+
+        Map<String, List<FontPeer>> fontFamilies = new HashMap<>(builders.size() * 4 / 3 + 1);
+        for (Map.Entry<String, FontFamilyBuilder> entry : builders.entrySet()) {
+            fontFamilies.put(entry.getKey(), entry.getValue().fonts);
+        }
+
+        FontFamilyIndex fontFamilyIndex = this.fontFamilyIndex.derive(fontFamilies);
+
+        return new Update(new FontRegistry(version + 1, systemFontFamilies, fontExtensions, fontExtensionOverrides, fontFamilyIndex), targetResult);
+    }
+
+    /**
+     * Merges all of the specified system fonts into font families.
+     */
+    @NotNull
+    static Map<String, List<FontPeer>> mergeSystemFontFamilies(@NotNull Font[] fonts) {
+        Map<String, List<FontPeer>> fontFamilies = new HashMap<>();
+
+        for (Font font : fonts) {
+            FontPeer fontPeer = new FontPeer(font);
+
+            // system fonts are always combined, there is no need to look for matching fonts
+            for (String familyName : getFamilyNames(font)) {
+                fontFamilies.computeIfAbsent(familyName, (s) -> new ArrayList<>()).add(fontPeer);
+            }
+        }
+
+        return fontFamilies;
+    }
+
+    /**
+     * Merges the font extensions into the specified font families. Font families missing from
+     * the map are created from the system font families, if given, or are otherwise unaffected
+     * and skipped.
+     */
+    private static boolean mergeFontFamilies(@NotNull Map<String, FontFamilyBuilder> fontFamilies, @Nullable Map<String, List<FontPeer>> systemFontFamilies,
+                                             @NotNull Collection<FontExtension> fontExtensions, int mergingStrategy, @NotNull Set<Font> targets) {
+        boolean targetResult = false;
+
+        for (FontExtension fontExtension : fontExtensions) {
+            for (String familyName : fontExtension.familyNames) {
+                FontFamilyBuilder fontFamily = fontFamilies.get(familyName);
+                if (fontFamily == null) {
+                    if (systemFontFamilies == null) {
+                        continue;
+                    }
+
+                    fontFamily = new FontFamilyBuilder(systemFontFamilies.get(familyName));
+                    fontFamilies.put(familyName, fontFamily);
+                }
+
+                targetResult |= fontFamily.merge(fontExtension.fontPeer, mergingStrategy) && targets.contains(fontExtension.font);
+            }
+        }
+
+        return targetResult;
+    }
+
+    /**
+     * Returns the names of all font families the font belongs to.
+     *
+     * @see FontFamilyNames#getFamilyNames(String)
+     */
+    @NotNull
+    static String[] getFamilyNames(@NotNull Font font) {
+        return FontFamilyNames.getFamilyNames(font.getFamily().toLowerCase());
+    }
+
+    /**
+     * Mutable font family used while merging, which indexes its fonts by weight and style.
+     */
+    static final class FontFamilyBuilder {
+
+        @NotNull
+        final List<FontPeer> fonts;
+        private final Set<Integer> slots = new HashSet<>();
+
+        FontFamilyBuilder(@Nullable List<FontPeer> fonts) {
+            this.fonts = fonts != null ? new ArrayList<>(fonts) : new ArrayList<>();
+
+            for (FontPeer font : this.fonts) {
+                slots.add(slot(font));
+            }
+        }
+
+        boolean merge(@NotNull FontPeer fontPeer, int mergingStrategy) {
+            int slot = slot(fontPeer);
+
+            if (slots.contains(slot)) {
+                if (mergingStrategy == MERGING_STRATEGY_KEEP) {
+                    return false;
+                }
+
+                if (mergingStrategy == MERGING_STRATEGY_OVERRIDE) {
+                    fonts.removeIf((font) -> slot(font) == slot);
+                }
+            }
+
+            fonts.add(fontPeer);
+            slots.add(slot);
+
+            return true;
+        }
+
+        private static int slot(@NotNull FontPeer font) {
+            return font.weight << 1 | (font.italic ? 1 : 0);
+        }
+    }
+
+    static final class FontExtension {
+
+        @NotNull
+        final Font font;
+        @NotNull
+        final FontPeer fontPeer;
+        @NotNull
+        final String[] familyNames;
+
+        FontExtension(@NotNull Font font) {
+            this.font = font;
+            this.fontPeer = new FontPeer(font);
+            this.familyNames = getFamilyNames(font);
+        }
+    }
+
+    static final class Update {
+
+        @NotNull
+        final FontRegistry registry;
+        final boolean result;
+
+        Update(@NotNull FontRegistry registry, boolean result) {
+            this.registry = registry;
+            this.result = result;
+        }
+    }
+}
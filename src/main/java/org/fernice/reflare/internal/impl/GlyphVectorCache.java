@@ -0,0 +1,149 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import org.jetbrains.annotations.NotNull;
+import sun.font.Font2D;
+
+/**
+ * Cache of the glyph vectors of strings, which is bounded by the number of glyph vectors and
+ * evicts the least recently used glyph vectors first. Glyph vectors are keyed on the string, the
+ * font, the physical font backing the font and the font render context, which carries the
+ * antialiasing and fractional metrics hints.
+ * <p>
+ * Glyph vectors are shared between all threads drawing the same text. They are only ever drawn
+ * and never modified, the strikes a glyph vector caches lazily are equal regardless of the thread
+ * creating them.
+ */
+final class GlyphVectorCache {
+
+    private final int capacity;
+
+    // guarded by itself
+    private final GlyphVectors glyphVectors;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    GlyphVectorCache(int capacity) {
+        this.capacity = capacity;
+        this.glyphVectors = new GlyphVectors(capacity);
+    }
+
+    @NotNull
+    GlyphVector get(@NotNull String text, @NotNull Font font, @NotNull Font2D font2D, @NotNull FontRenderContext frc) {
+        Key key = new Key(text, font, font2D, frc);
+
+        GlyphVector glyphVector;
+        synchronized (glyphVectors) {
+            glyphVector = glyphVectors.get(key);
+        }
+
+        if (glyphVector != null) {
+            hits.increment();
+            return glyphVector;
+        }
+
+        misses.increment();
+        glyphVector = font.createGlyphVector(frc, text);
+
+        synchronized (glyphVectors) {
+            glyphVectors.put(key, glyphVector);
+        }
+        return glyphVector;
+    }
+
+    /**
+     * Evicts the glyph vectors of all fonts backed by any of the specified physical fonts.
+     */
+    void evict(@NotNull Set<Font2D> fonts) {
+        synchronized (glyphVectors) {
+            glyphVectors.keySet().removeIf((key) -> fonts.contains(key.font2D));
+        }
+    }
+
+    void clear() {
+        synchronized (glyphVectors) {
+            glyphVectors.clear();
+        }
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Access ordered map of the glyph vectors, which evicts the eldest glyph vector once the
+     * capacity is exceeded.
+     */
+    private static final class GlyphVectors extends LinkedHashMap<Key, GlyphVector> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        GlyphVectors(int capacity) {
+            super(64, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, GlyphVector> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private static final class Key {
+
+        private final String text;
+        private final Font font;
+        private final Font2D font2D;
+        private final FontRenderContext frc;
+        private final int hash;
+
+        Key(@NotNull String text, @NotNull Font font, @NotNull Font2D font2D, @NotNull FontRenderContext frc) {
+            this.text = text;
+            this.font = font;
+            this.font2D = font2D;
+            this.frc = frc;
+            this.hash = ((text.hashCode() * 31 + font.hashCode()) * 31 + System.identityHashCode(font2D)) * 31 + frc.hashCode();
+        }
+
+        // fonts equal by name may still be backed by different physical fonts
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash && font2D == key.font2D && text.equals(key.text) && font.equals(key.font) && frc.equals(key.frc);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
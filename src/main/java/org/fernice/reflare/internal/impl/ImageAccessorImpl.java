@@ -8,51 +8,269 @@ package org.fernice.reflare.internal.impl;
 
 import java.awt.Image;
 import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
 import java.awt.image.FilteredImageSource;
 import java.awt.image.ImageFilter;
+import java.awt.image.RGBImageFilter;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
-import javax.imageio.ImageIO;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import org.fernice.reflare.internal.ImageHelper.ImageAccessor;
 import sun.awt.SunToolkit;
 import sun.awt.image.MultiResolutionImage;
 
 public class ImageAccessorImpl implements ImageAccessor {
 
+    /**
+     * System property defining the maximum number of bytes occupied by cached image resources,
+     * a value of zero disables the cache.
+     */
+    public static final String RESOURCE_CACHE_SIZE_PROPERTY = "org.fernice.reflare.imageCacheSize";
+
+    private static final ImageResourceCache resourceCache = new ImageResourceCache(
+            AccessController.doPrivileged((PrivilegedAction<Long>) () -> Long.getLong(RESOURCE_CACHE_SIZE_PROPERTY, 32L * 1024 * 1024)));
+
+    private static final ImageDiskCache diskCache = createDiskCache();
+
+    private static final String[] RESOLUTION_VARIANT_QUALIFIERS = {"@1.5x", "@2x", "@3x"};
+    private static final double[] RESOLUTION_VARIANT_SCALES = {1.5, 2, 3};
+
+    private static final DerivedImageCache derivedImages = new DerivedImageCache();
+
+    static {
+        Metrics.gauge("image.resourceCache.hits", ImageAccessorImpl::getResourceCacheHitCount);
+        Metrics.gauge("image.resourceCache.misses", ImageAccessorImpl::getResourceCacheMissCount);
+        Metrics.gauge("image.resourceCache.evictions", ImageAccessorImpl::getResourceCacheEvictionCount);
+        Metrics.gauge("image.resourceCache.residentBytes", ImageAccessorImpl::getResourceCacheResidentBytes);
+        Metrics.gauge("image.diskCache.hits", ImageAccessorImpl::getDiskCacheHitCount);
+        Metrics.gauge("image.diskCache.misses", ImageAccessorImpl::getDiskCacheMissCount);
+        Metrics.gauge("image.derivedCache.hits", ImageAccessorImpl::getDerivedImageCacheHitCount);
+        Metrics.gauge("image.derivedCache.misses", ImageAccessorImpl::getDerivedImageCacheMissCount);
+    }
+
+    /**
+     * Returns the image resource, which is shared with all other callers requesting the same
+     * resource. The returned image must therefore not be modified.
+     */
     @Override
     public Image getMultiResolutionImageResource(String resource) throws IOException {
-        Image image;
+        if (resourceCache.getCapacity() <= 0) {
+            return loadMultiResolutionImageResource(resource);
+        }
+
+        return resourceCache.get(ImageAccessorImpl.class.getClassLoader(), resource, () -> loadMultiResolutionImageResource(resource));
+    }
+
+    public static long getResourceCacheHitCount() {
+        return resourceCache.getHitCount();
+    }
+
+    public static long getResourceCacheMissCount() {
+        return resourceCache.getMissCount();
+    }
+
+    public static long getResourceCacheEvictionCount() {
+        return resourceCache.getEvictionCount();
+    }
+
+    public static long getResourceCacheResidentBytes() {
+        return resourceCache.getResidentBytes();
+    }
+
+    public static void clearResourceCache() {
+        resourceCache.clear();
+    }
+
+    private static ImageDiskCache createDiskCache() {
+        File file = ImageDiskCache.getCacheFile();
+        return file != null ? ImageDiskCache.open(file) : null;
+    }
+
+    public static long getDiskCacheHitCount() {
+        return diskCache != null ? diskCache.getHitCount() : 0;
+    }
+
+    public static long getDiskCacheMissCount() {
+        return diskCache != null ? diskCache.getMissCount() : 0;
+    }
+
+    /**
+     * Writes all image resources decoded since the last flush to the disk cache, which otherwise
+     * only happens on exit. Does nothing, if the disk cache is disabled.
+     */
+    public static void flushDiskCache() {
+        if (diskCache != null) {
+            diskCache.flush();
+        }
+    }
+
+    /**
+     * Loads all of the specified image resources in the background. The resources are decoded in
+     * parallel on a shared executor bounded by the number of processors and are put into the same
+     * cache as {@link #getMultiResolutionImageResource(String)}. Like with the latter, resolution
+     * variants are only decoded once they are requested.
+     * Resources that fail to load complete their future exceptionally.
+     *
+     * @param resources the resources to load
+     * @return the future of every resource by resource
+     */
+    public Map<String, CompletableFuture<Image>> loadMultiResolutionImageResources(Collection<String> resources) {
+        Map<String, CompletableFuture<Image>> images = new LinkedHashMap<>(resources.size() * 4 / 3 + 1);
+        for (String resource : resources) {
+            if (images.containsKey(resource)) {
+                continue;
+            }
+
+            CompletableFuture<Image> image;
+            if (resourceCache.getCapacity() <= 0) {
+                image = loadMultiResolutionImageResourceAsync(resource);
+            } else {
+                image = resourceCache.getAsync(ImageAccessorImpl.class.getClassLoader(), resource, () -> loadMultiResolutionImageResourceAsync(resource));
+            }
+            images.put(resource, image);
+        }
+        return images;
+    }
+
+    /**
+     * Loads all of the specified image resources in the background and invokes the callback once
+     * all of them have been loaded. Resources that failed to load are missing from the images.
+     *
+     * @param resources the resources to load
+     * @param callback  the callback receiving the loaded images by resource
+     */
+    public void loadMultiResolutionImageResources(Collection<String> resources, Consumer<Map<String, Image>> callback) {
+        Map<String, CompletableFuture<Image>> futures = loadMultiResolutionImageResources(resources);
+
+        CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).whenComplete((ignored, throwable) -> {
+            Map<String, Image> images = new LinkedHashMap<>(futures.size() * 4 / 3 + 1);
+            for (Map.Entry<String, CompletableFuture<Image>> entry : futures.entrySet()) {
+                if (!entry.getValue().isCompletedExceptionally()) {
+                    images.put(entry.getKey(), entry.getValue().join());
+                }
+            }
+            callback.accept(images);
+        });
+    }
+
+    private static Image loadMultiResolutionImageResource(String resource) throws IOException {
+        BufferedImage image;
 
         try (InputStream inputStream = ImageAccessorImpl.class.getResourceAsStream(resource)) {
-            image = ImageIO.read(inputStream);
+            image = readImage(resource, inputStream);
         }
 
-        String resource2x = resource.substring(0, resource.lastIndexOf('.')) + "@2x" + resource.substring(resource.lastIndexOf("."));
+        return createMultiResolutionImage(resource, image);
+    }
 
-        try (InputStream input2x = ImageAccessorImpl.class.getResourceAsStream(resource2x)) {
-            if (input2x != null) {
-                Image image2x = ImageIO.read(input2x);
+    private static CompletableFuture<Image> loadMultiResolutionImageResourceAsync(String resource) {
+        return CompletableFuture.supplyAsync(() -> createMultiResolutionImage(resource, decodeImageResource(resource)), ImageDecoder.getExecutor());
+    }
 
-                return SunToolkit.createImageWithResolutionVariant(image, image2x);
-            } else {
+    /**
+     * Creates the multi-resolution image of the resource, if there are any resolution variants of
+     * the resource. The resolution variants are only decoded once they are requested.
+     */
+    private static Image createMultiResolutionImage(String resource, BufferedImage image) {
+        if (image == null) {
+            return null;
+        }
+
+        int count = 0;
+        double[] scales = new double[RESOLUTION_VARIANT_QUALIFIERS.length];
+        String[] resources = new String[RESOLUTION_VARIANT_QUALIFIERS.length];
+
+        for (int i = 0; i < RESOLUTION_VARIANT_QUALIFIERS.length; i++) {
+            String variantResource = getResolutionVariantResource(resource, RESOLUTION_VARIANT_QUALIFIERS[i]);
+
+            if (ImageAccessorImpl.class.getResource(variantResource) != null) {
+                scales[count] = RESOLUTION_VARIANT_SCALES[i];
+                resources[count] = variantResource;
+                count++;
+            }
+        }
+
+        if (count == 0) {
+            return image;
+        }
+
+        return new LazyMultiResolutionImage(image, Arrays.copyOf(scales, count), (index) -> {
+            // a resolution variant failing to decode is substituted by the base image
+            try {
+                BufferedImage variant = decodeImageResource(resources[index]);
+                return variant != null ? variant : image;
+            } catch (UncheckedIOException | IllegalArgumentException e) {
                 return image;
             }
+        });
+    }
+
+    private static BufferedImage decodeImageResource(String resource) {
+        try (InputStream inputStream = ImageAccessorImpl.class.getResourceAsStream(resource)) {
+            return readImage(resource, inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
+    private static BufferedImage readImage(String resource, InputStream inputStream) throws IOException {
+        if (diskCache != null) {
+            return diskCache.read(resource, inputStream);
+        }
+        return ImageDecoder.read(inputStream);
+    }
+
+    private static String getResolutionVariantResource(String resource, String qualifier) {
+        return resource.substring(0, resource.lastIndexOf('.')) + qualifier + resource.substring(resource.lastIndexOf("."));
+    }
+
+    /**
+     * Returns the image scaled to the specified size. Images, whose pixels are available, are
+     * scaled eagerly and the scaled images are cached for as long as the image is referenced.
+     * The returned image is therefore shared and must not be modified.
+     */
     @Override
     public Image getScaledInstance(Image image, int width, int height, int hints) {
         if (image.getWidth(null) == width && image.getHeight(null) == height) {
             return image;
         }
 
+        ScaleKey key = new ScaleKey(width, height, hints);
+
+        Image scaled = derivedImages.get(image, key);
+        if (scaled != null) {
+            return scaled;
+        }
+
+        scaled = getScaledInstance0(image, width, height, hints);
+        if (scaled != null) {
+            derivedImages.put(image, key, scaled);
+            return scaled;
+        }
+
+        // lazily produced images still require the image filters
         if (image instanceof MultiResolutionImage) {
             MultiResolutionImage multiResolutionImage = (MultiResolutionImage) image;
 
             List<Image> images = multiResolutionImage.getResolutionVariants();
             Image base = images.get(0).getScaledInstance(width, height, hints);
-            Image variant = images.get(1).getScaledInstance(width * 2, height * 2, hints);
+            if (images.size() == 1) {
+                return base;
+            }
+
+            Image variant = images.get(images.size() - 1);
+            int scale = getResolutionVariantScale(images.get(0), variant);
+            variant = variant.getScaledInstance(width * scale, height * scale, hints);
 
             return SunToolkit.createImageWithResolutionVariant(base, variant);
         } else {
@@ -60,14 +278,116 @@ public class ImageAccessorImpl implements ImageAccessor {
         }
     }
 
+    private static Image getScaledInstance0(Image image, int width, int height, int hints) {
+        if (image instanceof LazyMultiResolutionImage) {
+            BufferedImage base = (BufferedImage) ((LazyMultiResolutionImage) image).getBaseImage();
+
+            int baseWidth = ImageScaler.getScaledWidth(base.getWidth(), base.getHeight(), width, height);
+            int baseHeight = ImageScaler.getScaledHeight(base.getWidth(), base.getHeight(), width, height);
+
+            return ((LazyMultiResolutionImage) image).derive((variant, scale) -> ImageScaler.scale(variant,
+                    Math.max(1, (int) Math.round(baseWidth * scale)), Math.max(1, (int) Math.round(baseHeight * scale)), hints));
+        }
+
+        if (image instanceof MultiResolutionImage) {
+            List<Image> images = ((MultiResolutionImage) image).getResolutionVariants();
+
+            BufferedImage base = ImageScaler.getBufferedImage(images.get(0));
+            if (base == null) {
+                return null;
+            }
+
+            int baseWidth = ImageScaler.getScaledWidth(base.getWidth(), base.getHeight(), width, height);
+            int baseHeight = ImageScaler.getScaledHeight(base.getWidth(), base.getHeight(), width, height);
+
+            Image[] variants = new Image[images.size()];
+            for (int i = 0; i < variants.length; i++) {
+                BufferedImage variant = i == 0 ? base : ImageScaler.getBufferedImage(images.get(i));
+                if (variant == null) {
+                    return null;
+                }
+
+                double scaleX = (double) variant.getWidth() / base.getWidth();
+                double scaleY = (double) variant.getHeight() / base.getHeight();
+
+                variants[i] = ImageScaler.scale(variant, Math.max(1, (int) Math.round(baseWidth * scaleX)),
+                        Math.max(1, (int) Math.round(baseHeight * scaleY)), hints);
+            }
+
+            return new MultiResolutionBufferedImage(variants);
+        }
+
+        BufferedImage bufferedImage = ImageScaler.getBufferedImage(image);
+        if (bufferedImage == null) {
+            return null;
+        }
+
+        int scaledWidth = ImageScaler.getScaledWidth(bufferedImage.getWidth(), bufferedImage.getHeight(), width, height);
+        int scaledHeight = ImageScaler.getScaledHeight(bufferedImage.getWidth(), bufferedImage.getHeight(), width, height);
+
+        return ImageScaler.scale(bufferedImage, scaledWidth, scaledHeight, hints);
+    }
+
+    /**
+     * Returns the integral scale of the resolution variant relative to the base image, which is
+     * assumed to be two, if the size of either of the images is not known yet.
+     */
+    private static int getResolutionVariantScale(Image base, Image variant) {
+        int baseWidth = base.getWidth(null);
+        int variantWidth = variant.getWidth(null);
+
+        if (baseWidth <= 0 || variantWidth <= 0) {
+            return 2;
+        }
+        return Math.max(1, Math.round((float) variantWidth / baseWidth));
+    }
+
+    public static long getDerivedImageCacheHitCount() {
+        return derivedImages.getHitCount();
+    }
+
+    public static long getDerivedImageCacheMissCount() {
+        return derivedImages.getMissCount();
+    }
+
+    public static void clearDerivedImageCache() {
+        derivedImages.clear();
+    }
+
+    /**
+     * Returns the image filtered by the filter. Images, whose pixels are available, are filtered
+     * eagerly, if the filter is a {@link RGBImageFilter}, and the filtered images are cached per
+     * filter instance for as long as the image is referenced. The returned image is therefore
+     * shared and must not be modified.
+     */
     @Override
     public Image getFilteredInstance(Image image, ImageFilter filter) {
+        FilterKey key = new FilterKey(filter);
+
+        Image filtered = derivedImages.get(image, key);
+        if (filtered != null) {
+            return filtered;
+        }
+
+        if (filter instanceof RGBImageFilter) {
+            filtered = getFilteredInstance1(image, (RGBImageFilter) filter);
+            if (filtered != null) {
+                derivedImages.put(image, key, filtered);
+                return filtered;
+            }
+        }
+
+        // lazily produced images and arbitrary filters still require the producer chain
         if (image instanceof MultiResolutionImage) {
             MultiResolutionImage multiResolutionImage = (MultiResolutionImage) image;
 
             List<Image> images = multiResolutionImage.getResolutionVariants();
             Image base = getFilteredInstance0(images.get(0), filter);
-            Image variant = getFilteredInstance(images.get(1), filter);
+            if (images.size() == 1) {
+                return base;
+            }
+
+            Image variant = getFilteredInstance(images.get(images.size() - 1), filter);
 
             return SunToolkit.createImageWithResolutionVariant(base, variant);
         } else {
@@ -80,4 +400,83 @@ public class ImageAccessorImpl implements ImageAccessor {
 
         return Toolkit.getDefaultToolkit().createImage(prod);
     }
+
+    private static Image getFilteredInstance1(Image image, RGBImageFilter filter) {
+        if (image instanceof LazyMultiResolutionImage) {
+            return ((LazyMultiResolutionImage) image).derive((variant, scale) -> ImageFilterer.filter(variant, filter));
+        }
+
+        if (image instanceof MultiResolutionImage) {
+            List<Image> images = ((MultiResolutionImage) image).getResolutionVariants();
+
+            Image[] variants = new Image[images.size()];
+            for (int i = 0; i < variants.length; i++) {
+                BufferedImage variant = ImageScaler.getBufferedImage(images.get(i));
+                if (variant == null) {
+                    return null;
+                }
+
+                variants[i] = ImageFilterer.filter(variant, filter);
+            }
+
+            return new MultiResolutionBufferedImage(variants);
+        }
+
+        BufferedImage bufferedImage = ImageScaler.getBufferedImage(image);
+        if (bufferedImage == null) {
+            return null;
+        }
+
+        return ImageFilterer.filter(bufferedImage, filter);
+    }
+
+    private static final class ScaleKey {
+
+        private final int width;
+        private final int height;
+        private final int hints;
+
+        ScaleKey(int width, int height, int hints) {
+            this.width = width;
+            this.height = height;
+            this.hints = hints;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ScaleKey)) {
+                return false;
+            }
+            ScaleKey key = (ScaleKey) o;
+            return width == key.width && height == key.height && hints == key.hints;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * width + height) * 31 + hints;
+        }
+    }
+
+    private static final class FilterKey {
+
+        private final ImageFilter filter;
+
+        FilterKey(ImageFilter filter) {
+            this.filter = filter;
+        }
+
+        // filters are identified by their instance, they do not define any equality themselves
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof FilterKey && filter == ((FilterKey) o).filter;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(filter);
+        }
+    }
 }
@@ -0,0 +1,127 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Decodes images like {@link ImageIO#read(InputStream)}, but reuses the {@link ImageReader}s of
+ * the current thread instead of looking up and creating a new reader for every image and buffers
+ * the input in memory rather than in a temporary file.
+ */
+final class ImageDecoder {
+
+    private static final ThreadLocal<List<ImageReader>> readers = ThreadLocal.withInitial(ArrayList::new);
+
+    private static final Metrics.Timer decodeTimer = Metrics.timer("image.decode");
+    private static final Metrics.Counter decodedBytes = Metrics.counter("image.decodedBytes");
+
+    private ImageDecoder() {
+    }
+
+    @Nullable
+    static BufferedImage read(@Nullable InputStream input) throws IOException {
+        if (input == null) {
+            throw new IllegalArgumentException("input == null!");
+        }
+
+        try (ImageInputStream stream = new MemoryCacheImageInputStream(input)) {
+            ImageReader reader = getReader(stream);
+            if (reader == null) {
+                return null;
+            }
+
+            long start = Metrics.start();
+
+            reader.setInput(stream, true, true);
+            try {
+                BufferedImage image = reader.read(0, reader.getDefaultReadParam());
+
+                decodeTimer.record(start);
+                if (Metrics.isEnabled()) {
+                    decodedBytes.add(ImageResourceCache.sizeOf(image));
+                }
+
+                return image;
+            } finally {
+                reader.reset();
+            }
+        }
+    }
+
+    @Nullable
+    private static ImageReader getReader(@NotNull ImageInputStream stream) throws IOException {
+        List<ImageReader> readers = ImageDecoder.readers.get();
+
+        for (ImageReader reader : readers) {
+            ImageReaderSpi provider = reader.getOriginatingProvider();
+            if (provider != null && provider.canDecodeInput(stream)) {
+                return reader;
+            }
+        }
+
+        Iterator<ImageReader> iterator = ImageIO.getImageReaders(stream);
+        if (!iterator.hasNext()) {
+            return null;
+        }
+
+        ImageReader reader = iterator.next();
+        readers.add(reader);
+        return reader;
+    }
+
+    /**
+     * Returns the shared executor for decoding images in the background. The executor is bounded
+     * by the number of available processors and its threads terminate when idle.
+     */
+    @NotNull
+    static ExecutorService getExecutor() {
+        return ExecutorHolder.executor;
+    }
+
+    private static final class ExecutorHolder {
+
+        static final ExecutorService executor;
+
+        static {
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+            ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new ThreadFactory() {
+
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(@NotNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "reflare-image-decoder-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+
+            executor = threadPoolExecutor;
+        }
+    }
+}
@@ -0,0 +1,556 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sun.awt.image.SunWritableRaster;
+
+/**
+ * Persistent cache of decoded image resources, which allows image resources to be restored on
+ * startup without decoding them again. The decoded pixels are kept in a memory-mapped file and
+ * are copied into the image in bulk. Entries are keyed on the resource and a hash of its content
+ * and are decoded again as soon as the content no longer matches.
+ * <p>
+ * The cache is disabled by default and can be enabled through the {@code org.fernice.reflare.imageDiskCache}
+ * system property, which is either {@code true} to use the default location or the location of
+ * the cache. Newly decoded images are written in the background once no image has been decoded
+ * for a moment or once they exceed a size limit, so that they are not retained beyond the resource
+ * cache, and at the latest on exit.
+ */
+final class ImageDiskCache {
+
+    static final String CACHE_PROPERTY = "org.fernice.reflare.imageDiskCache";
+
+    private static final int MAGIC = 0x52464943; // RFIC
+    private static final int VERSION = 1;
+
+    // images are only persisted as long as the cache does not exceed this size
+    private static final long MAX_SIZE = 64L * 1024 * 1024;
+
+    // pending images are written once no image has been decoded for this long
+    private static final long FLUSH_DELAY_MILLIS = 2000;
+    // or once they occupy this many bytes, whichever comes first
+    private static final long MAX_PENDING_BYTES = 8L * 1024 * 1024;
+
+    private final File file;
+
+    private volatile Snapshot snapshot;
+    // restores hold the read lock, the mapping of a snapshot is only released under the write lock
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    private final Map<String, PendingEntry> pending = new ConcurrentHashMap<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private volatile long lastPendingNanos;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledThreadPoolExecutor flushExecutor;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private ImageDiskCache(@NotNull File file, @NotNull Snapshot snapshot) {
+        this.file = file;
+        this.snapshot = snapshot;
+
+        flushExecutor = new ScheduledThreadPoolExecutor(1, (runnable) -> {
+            Thread thread = new Thread(runnable, "reflare-image-cache-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushExecutor.setKeepAliveTime(5, TimeUnit.SECONDS);
+        flushExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @Nullable
+    static File getCacheFile() {
+        return AccessController.doPrivileged((PrivilegedAction<File>) () -> {
+            String location = System.getProperty(CACHE_PROPERTY);
+            if (location == null || location.isEmpty() || location.equals("false") || location.equals("none")) {
+                return null;
+            }
+            if (location.equals("true")) {
+                return new File(System.getProperty("user.home"), ".fernice" + File.separator + "reflare" + File.separator + "image-cache-jdk8.bin");
+            }
+            return new File(location);
+        });
+    }
+
+    /**
+     * Opens the cache backed by the specified file, which is written on exit.
+     */
+    @NotNull
+    static ImageDiskCache open(@NotNull File file) {
+        ImageDiskCache cache = new ImageDiskCache(file, load(file));
+
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            Thread hook = new Thread(cache::flush, "reflare-image-cache-writer");
+            Runtime.getRuntime().addShutdownHook(hook);
+            return null;
+        });
+
+        return cache;
+    }
+
+    /**
+     * Reads the image from the input like {@link ImageDecoder#read(InputStream)}, but restores it
+     * from the cache, if the content of the resource has not changed.
+     *
+     * @param resource the resource the input belongs to
+     * @param input    the content of the resource
+     * @return the image or null, if there is no suitable reader
+     */
+    @Nullable
+    BufferedImage read(@NotNull String resource, @Nullable InputStream input) throws IOException {
+        if (input == null) {
+            throw new IllegalArgumentException("input == null!");
+        }
+
+        byte[] bytes = readFully(input);
+        long hash = hash(bytes);
+
+        snapshotLock.readLock().lock();
+        try {
+            Snapshot snapshot = this.snapshot;
+            Entry entry = snapshot.entries.get(resource);
+            if (entry != null && entry.hash == hash) {
+                hits.increment();
+                return snapshot.restore(entry);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+
+        PendingEntry pendingEntry = pending.get(resource);
+        if (pendingEntry != null && pendingEntry.hash == hash) {
+            hits.increment();
+            return pendingEntry.image;
+        }
+
+        misses.increment();
+
+        BufferedImage image = ImageDecoder.read(new ByteArrayInputStream(bytes));
+        if (image == null) {
+            return null;
+        }
+
+        // the image is converted once, so that it can be shared with the writer
+        BufferedImage argbImage = toIntArgb(image);
+        PendingEntry decodedEntry = new PendingEntry(hash, argbImage);
+
+        PendingEntry previous = pending.put(resource, decodedEntry);
+        pendingBytes.addAndGet(decodedEntry.size() - (previous != null ? previous.size() : 0));
+        lastPendingNanos = System.nanoTime();
+
+        if (!flushScheduled.getAndSet(true)) {
+            flushExecutor.schedule(this::flushPending, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        return argbImage;
+    }
+
+    /**
+     * Flushes the pending images, unless images are still being decoded and do not exceed the
+     * limit yet, in which case the flush is postponed.
+     */
+    private void flushPending() {
+        long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastPendingNanos);
+        if (idleMillis < FLUSH_DELAY_MILLIS && pendingBytes.get() < MAX_PENDING_BYTES) {
+            flushExecutor.schedule(this::flushPending, FLUSH_DELAY_MILLIS - idleMillis, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        flushScheduled.set(false);
+        flush();
+
+        // images decoded during the flush are flushed later
+        if (!pending.isEmpty() && !flushScheduled.getAndSet(true)) {
+            flushExecutor.schedule(this::flushPending, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes all images decoded since the last flush to the file.
+     */
+    synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        Map<String, PendingEntry> flushed = new HashMap<>(pending);
+
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            try {
+                Path temporary = store(flushed);
+                try {
+                    replace(temporary);
+                } finally {
+                    Files.deleteIfExists(temporary);
+                }
+            } catch (IOException | RuntimeException e) {
+                // the cache is purely an optimization
+            } finally {
+                // images that failed to be written are not retained either, they are decoded again next time
+                for (Map.Entry<String, PendingEntry> entry : flushed.entrySet()) {
+                    if (pending.remove(entry.getKey(), entry.getValue())) {
+                        pendingBytes.addAndGet(-entry.getValue().size());
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Replaces the file with the temporary file. The mapping of the current snapshot is released
+     * beforehand, as mapped files cannot be replaced on every platform.
+     */
+    private void replace(@NotNull Path temporary) throws IOException {
+        snapshotLock.writeLock().lock();
+        try {
+            Snapshot previous = snapshot;
+            snapshot = Snapshot.EMPTY;
+            previous.release();
+
+            Path target = file.getAbsoluteFile().toPath();
+            try {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                snapshot = load(file);
+            }
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    @NotNull
+    private static Snapshot load(@NotNull File file) {
+        if (!file.isFile()) {
+            return Snapshot.EMPTY;
+        }
+
+        MappedByteBuffer buffer = null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                MappedBuffers.unmap(buffer);
+                return Snapshot.EMPTY;
+            }
+
+            int count = buffer.getInt();
+            List<String> resources = new ArrayList<>(count);
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                resources.add(readString(buffer));
+                entries.add(new Entry(buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getLong()));
+            }
+
+            ByteBuffer data = buffer.slice();
+
+            Map<String, Entry> index = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                Entry entry = entries.get(i);
+                if (entry.width <= 0 || entry.height <= 0 || entry.offset < 0 || entry.offset + entry.size() > data.limit()) {
+                    MappedBuffers.unmap(buffer);
+                    return Snapshot.EMPTY;
+                }
+                index.put(resources.get(i), entry);
+            }
+
+            return new Snapshot(buffer, data, index);
+        } catch (IOException | RuntimeException e) {
+            if (buffer != null) {
+                MappedBuffers.unmap(buffer);
+            }
+            // corrupted or truncated caches are simply rebuilt
+            return Snapshot.EMPTY;
+        }
+    }
+
+    /**
+     * Writes the flushed images together with the entries of the current snapshot into a
+     * temporary file next to the file.
+     */
+    @NotNull
+    private Path store(@NotNull Map<String, PendingEntry> flushed) throws IOException {
+        // flushes are serialized, the snapshot is only replaced by this thread
+        Snapshot snapshot = this.snapshot;
+
+        List<String> resources = new ArrayList<>();
+        List<Object> sources = new ArrayList<>();
+        long size = 0;
+
+        // entries decoded in this session replace the stale entries of the same resource
+        for (Map.Entry<String, PendingEntry> entry : flushed.entrySet()) {
+            long entrySize = entry.getValue().size();
+            if (size + entrySize > MAX_SIZE) {
+                continue;
+            }
+            resources.add(entry.getKey());
+            sources.add(entry.getValue());
+            size += entrySize;
+        }
+        for (Map.Entry<String, Entry> entry : snapshot.entries.entrySet()) {
+            if (flushed.containsKey(entry.getKey()) || size + entry.getValue().size() > MAX_SIZE) {
+                continue;
+            }
+            resources.add(entry.getKey());
+            sources.add(entry.getValue());
+            size += entry.getValue().size();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(resources.size());
+
+        long offset = 0;
+        for (int i = 0; i < resources.size(); i++) {
+            writeString(output, resources.get(i));
+
+            Object source = sources.get(i);
+            long entrySize;
+            if (source instanceof PendingEntry) {
+                PendingEntry entry = (PendingEntry) source;
+                output.writeLong(entry.hash);
+                output.writeInt(entry.image.getWidth());
+                output.writeInt(entry.image.getHeight());
+                entrySize = entry.size();
+            } else {
+                Entry entry = (Entry) source;
+                output.writeLong(entry.hash);
+                output.writeInt(entry.width);
+                output.writeInt(entry.height);
+                entrySize = entry.size();
+            }
+            output.writeLong(offset);
+
+            offset += entrySize;
+        }
+
+        output.flush();
+
+        Path directory = file.getAbsoluteFile().toPath().getParent();
+        Files.createDirectories(directory);
+
+        Path temporary = Files.createTempFile(directory, file.getName(), ".tmp");
+        boolean written = false;
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()));
+
+                for (Object source : sources) {
+                    if (source instanceof PendingEntry) {
+                        BufferedImage image = ((PendingEntry) source).image;
+                        int[] pixels = (int[]) image.getRaster().getDataElements(0, 0, image.getWidth(), image.getHeight(), null);
+
+                        ByteBuffer buffer = ByteBuffer.allocate(pixels.length * 4);
+                        buffer.asIntBuffer().put(pixels);
+                        writeFully(channel, buffer);
+                    } else {
+                        writeFully(channel, snapshot.slice((Entry) source));
+                    }
+                }
+            }
+
+            written = true;
+            return temporary;
+        } finally {
+            if (!written) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    @NotNull
+    private static BufferedImage toIntArgb(@NotNull BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            return image;
+        }
+
+        BufferedImage argbImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+
+        Graphics2D g = argbImage.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(image, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+
+        return argbImage;
+    }
+
+    private static void writeFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @NotNull
+    private static byte[] readFully(@NotNull InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 * 1024);
+        byte[] buffer = new byte[8 * 1024];
+        int read;
+        while ((read = input.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static long hash(@NotNull byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        return hash ^ bytes.length;
+    }
+
+    @NotNull
+    private static String readString(@NotNull ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(@NotNull DataOutputStream output, @NotNull String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("string exceeds cache limits: " + value.length());
+        }
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+
+    private static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(null, ByteBuffer.allocate(0), Collections.<String, Entry>emptyMap());
+
+        @Nullable
+        private final MappedByteBuffer mapping;
+        private final ByteBuffer data;
+        final Map<String, Entry> entries;
+
+        Snapshot(@Nullable MappedByteBuffer mapping, @NotNull ByteBuffer data, @NotNull Map<String, Entry> entries) {
+            this.mapping = mapping;
+            this.data = data;
+            this.entries = entries;
+        }
+
+        /**
+         * Releases the mapping of the file, the snapshot must not be used afterwards.
+         */
+        void release() {
+            if (mapping != null) {
+                MappedBuffers.unmap(mapping);
+            }
+        }
+
+        @NotNull
+        BufferedImage restore(@NotNull Entry entry) {
+            BufferedImage image = new BufferedImage(entry.width, entry.height, BufferedImage.TYPE_INT_ARGB);
+
+            // stealing the data keeps the image eligible for acceleration, unlike DataBufferInt.getData()
+            DataBufferInt dataBuffer = (DataBufferInt) image.getRaster().getDataBuffer();
+            int[] pixels = SunWritableRaster.stealData(dataBuffer, 0);
+
+            slice(entry).asIntBuffer().get(pixels);
+
+            SunWritableRaster.markDirty(dataBuffer);
+
+            return image;
+        }
+
+        @NotNull
+        ByteBuffer slice(@NotNull Entry entry) {
+            ByteBuffer buffer = data.duplicate();
+            buffer.position((int) entry.offset);
+            buffer.limit((int) (entry.offset + entry.size()));
+            return buffer.slice();
+        }
+    }
+
+    private static final class Entry {
+
+        final long hash;
+        final int width;
+        final int height;
+        final long offset;
+
+        Entry(long hash, int width, int height, long offset) {
+            this.hash = hash;
+            this.width = width;
+            this.height = height;
+            this.offset = offset;
+        }
+
+        long size() {
+            return (long) width * height * 4;
+        }
+    }
+
+    private static final class PendingEntry {
+
+        final long hash;
+        final BufferedImage image;
+
+        PendingEntry(long hash, @NotNull BufferedImage image) {
+            this.hash = hash;
+            this.image = image;
+        }
+
+        long size() {
+            return (long) image.getWidth() * image.getHeight() * 4;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.RGBImageFilter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.jetbrains.annotations.NotNull;
+import sun.awt.image.SunWritableRaster;
+
+/**
+ * Applies {@link RGBImageFilter}s eagerly to the pixels of an image instead of passing them
+ * through the producer and consumer chain of a {@link java.awt.image.FilteredImageSource}.
+ * Large images are filtered in parallel on the common fork-join pool.
+ */
+final class ImageFilterer {
+
+    // number of pixels below which a region is filtered by a single thread
+    private static final int PARALLELISM_THRESHOLD = 64 * 1024;
+
+    private static final Metrics.Timer filterTimer = Metrics.timer("image.filter");
+
+    private ImageFilterer() {
+    }
+
+    /**
+     * Returns a copy of the image, whose pixels have been filtered by the filter.
+     *
+     * @param image  the image to filter
+     * @param filter the filter to apply
+     * @return the filtered image
+     */
+    @NotNull
+    static BufferedImage filter(@NotNull BufferedImage image, @NotNull RGBImageFilter filter) {
+        long start = Metrics.start();
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        BufferedImage filtered = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+
+        // converts the pixels into the default RGB color model expected by the filter
+        Graphics2D g = filtered.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(image, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+
+        // stealing the data keeps the image eligible for acceleration, unlike DataBufferInt.getData()
+        DataBufferInt dataBuffer = (DataBufferInt) filtered.getRaster().getDataBuffer();
+        int[] pixels = SunWritableRaster.stealData(dataBuffer, 0);
+
+        FilterTask task = new FilterTask(pixels, width, 0, height, filter);
+        if ((long) width * height < PARALLELISM_THRESHOLD) {
+            task.compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(task);
+        }
+
+        SunWritableRaster.markDirty(dataBuffer);
+
+        filterTimer.record(start);
+
+        return filtered;
+    }
+
+    private static final class FilterTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] pixels;
+        private final int width;
+        private final int startRow;
+        private final int endRow;
+        private final RGBImageFilter filter;
+
+        FilterTask(@NotNull int[] pixels, int width, int startRow, int endRow, @NotNull RGBImageFilter filter) {
+            this.pixels = pixels;
+            this.width = width;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.filter = filter;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = endRow - startRow;
+
+            if (rows > 1 && (long) rows * width >= PARALLELISM_THRESHOLD) {
+                int middleRow = startRow + rows / 2;
+
+                invokeAll(new FilterTask(pixels, width, startRow, middleRow, filter), new FilterTask(pixels, width, middleRow, endRow, filter));
+                return;
+            }
+
+            // filters may keep state, every region is filtered by its own instance like every consumer
+            RGBImageFilter filter = (RGBImageFilter) this.filter.getFilterInstance(null);
+
+            for (int y = startRow; y < endRow; y++) {
+                int offset = y * width;
+                for (int x = 0; x < width; x++) {
+                    pixels[offset + x] = filter.filterRGB(x, y, pixels[offset + x]);
+                }
+            }
+        }
+    }
+}
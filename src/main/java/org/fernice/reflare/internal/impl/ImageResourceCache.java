@@ -0,0 +1,353 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sun.awt.image.MultiResolutionImage;
+
+/**
+ * Cache of decoded image resources, which is bounded by the size of the decoded images rather than
+ * by the number of images and evicts the least recently used images first. Concurrent loads of the
+ * same resource are deduplicated, so that every resource is only decoded once.
+ */
+final class ImageResourceCache {
+
+    private final long capacity;
+
+    // guarded by itself, access ordered
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long residentBytes;
+
+    private final Map<Key, CompletableFuture<Image>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ImageResourceCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the cached image of the resource or loads it using the specified loader. If the
+     * resource is already being loaded by another thread, the call waits for that load instead.
+     */
+    @Nullable
+    Image get(@Nullable ClassLoader classLoader, @NotNull String resource, @NotNull Loader loader) throws IOException {
+        Key key = new Key(classLoader, resource);
+
+        Image image = lookup(key);
+        if (image != null) {
+            hits.increment();
+            return image;
+        }
+
+        CompletableFuture<Image> future = new CompletableFuture<>();
+        CompletableFuture<Image> pending = loading.putIfAbsent(key, future);
+        if (pending != null) {
+            hits.increment();
+            return await(pending);
+        }
+
+        try {
+            // the resource might have been loaded in the meantime
+            image = lookup(key);
+            if (image != null) {
+                hits.increment();
+            } else {
+                misses.increment();
+                image = loader.load();
+                store(key, image);
+            }
+            future.complete(image);
+            return image;
+        } catch (IOException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    /**
+     * Returns the cached image of the resource or starts loading it using the specified loader.
+     * Loads are deduplicated with both synchronous and asynchronous loads of the same resource.
+     */
+    @NotNull
+    CompletableFuture<Image> getAsync(@Nullable ClassLoader classLoader, @NotNull String resource, @NotNull AsyncLoader loader) {
+        Key key = new Key(classLoader, resource);
+
+        Image image = lookup(key);
+        if (image != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(image);
+        }
+
+        CompletableFuture<Image> future = new CompletableFuture<>();
+        CompletableFuture<Image> pending = loading.putIfAbsent(key, future);
+        if (pending != null) {
+            hits.increment();
+            return pending;
+        }
+
+        image = lookup(key);
+        if (image != null) {
+            hits.increment();
+            loading.remove(key, future);
+            future.complete(image);
+            return future;
+        }
+
+        misses.increment();
+
+        CompletableFuture<Image> load;
+        try {
+            load = loader.load();
+        } catch (RuntimeException | Error e) {
+            loading.remove(key, future);
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        load.whenComplete((loadedImage, throwable) -> {
+            if (throwable == null) {
+                store(key, loadedImage);
+            }
+            loading.remove(key, future);
+
+            if (throwable == null) {
+                future.complete(loadedImage);
+            } else {
+                future.completeExceptionally(throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+            }
+        });
+
+        return future;
+    }
+
+    @Nullable
+    private Image lookup(@NotNull Key key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            return entry != null ? entry.image : null;
+        }
+    }
+
+    private void store(@NotNull Key key, @Nullable Image image) {
+        // images without a suitable reader decode to null
+        if (image == null) {
+            return;
+        }
+
+        // resolution variants loaded later on are accounted for once they have been loaded
+        if (image instanceof LazyMultiResolutionImage) {
+            ((LazyMultiResolutionImage) image).setVariantLoadListener(() -> resize(key, image));
+        }
+
+        synchronized (entries) {
+            // computed under the lock, so that no concurrently loaded variant is missed
+            long bytes = sizeOf(image);
+            if (bytes > capacity) {
+                return;
+            }
+
+            Entry previous = entries.put(key, new Entry(image, bytes));
+            if (previous != null) {
+                residentBytes -= previous.bytes;
+            }
+            residentBytes += bytes;
+
+            evict();
+        }
+    }
+
+    /**
+     * Recomputes the size of the cached image of the resource, if it is still cached.
+     */
+    private void resize(@NotNull Key key, @NotNull Image image) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null || entry.image != image) {
+                return;
+            }
+
+            long bytes = sizeOf(image);
+            residentBytes += bytes - entry.bytes;
+            entry.bytes = bytes;
+
+            evict();
+        }
+    }
+
+    // guarded by entries
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (residentBytes > capacity && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            residentBytes -= eldest.bytes;
+            evictions.increment();
+        }
+    }
+
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+            residentBytes = 0;
+        }
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    long getResidentBytes() {
+        synchronized (entries) {
+            return residentBytes;
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+
+    @Nullable
+    private static Image await(@NotNull CompletableFuture<Image> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw new IOException(cause.getMessage(), cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of bytes occupied by the decoded pixels of the image. Resolution variants
+     * of lazy images, which have not been loaded yet, are not accounted for.
+     */
+    static long sizeOf(@NotNull Image image) {
+        if (image instanceof LazyMultiResolutionImage) {
+            long bytes = 0;
+            for (Image variant : ((LazyMultiResolutionImage) image).getLoadedResolutionVariants()) {
+                bytes += sizeOf(variant);
+            }
+            return bytes;
+        }
+
+        if (image instanceof MultiResolutionImage) {
+            long bytes = 0;
+            for (Image variant : ((MultiResolutionImage) image).getResolutionVariants()) {
+                // toolkit images list themselves as their base variant
+                bytes += variant != image ? sizeOf(variant) : sizeOfPixels(variant);
+            }
+            return bytes;
+        }
+
+        return sizeOfPixels(image);
+    }
+
+    private static long sizeOfPixels(@NotNull Image image) {
+        if (image instanceof BufferedImage) {
+            DataBuffer dataBuffer = ((BufferedImage) image).getRaster().getDataBuffer();
+
+            return (long) dataBuffer.getSize() * dataBuffer.getNumBanks() * DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8;
+        }
+
+        return (long) Math.max(image.getWidth(null), 0) * Math.max(image.getHeight(null), 0) * 4;
+    }
+
+    interface Loader {
+
+        @Nullable
+        Image load() throws IOException;
+    }
+
+    interface AsyncLoader {
+
+        @NotNull
+        CompletableFuture<Image> load();
+    }
+
+    private static final class Key {
+
+        private final ClassLoader classLoader;
+        private final String resource;
+
+        Key(@Nullable ClassLoader classLoader, @NotNull String resource) {
+            this.classLoader = classLoader;
+            this.resource = resource;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return classLoader == key.classLoader && resource.equals(key.resource);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(classLoader) + resource.hashCode();
+        }
+    }
+
+    private static final class Entry {
+
+        final Image image;
+        // guarded by entries, grows as resolution variants are loaded
+        long bytes;
+
+        Entry(@NotNull Image image, long bytes) {
+            this.image = image;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Toolkit;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sun.awt.image.ToolkitImage;
+
+/**
+ * Scales images eagerly using Java2D instead of the image filters used by
+ * {@link Image#getScaledInstance(int, int, int)}. Smooth scaling reduces the size of the image
+ * in steps of at most one half, which yields a quality close to area averaging at a fraction
+ * of its cost.
+ */
+final class ImageScaler {
+
+    private static final Metrics.Timer scaleTimer = Metrics.timer("image.scale");
+
+    private ImageScaler() {
+    }
+
+    /**
+     * Returns the pixels of the image, if they are available without producing the image first.
+     */
+    @Nullable
+    static BufferedImage getBufferedImage(@NotNull Image image) {
+        if (image instanceof BufferedImage) {
+            return (BufferedImage) image;
+        }
+
+        // fully loaded toolkit images keep their pixels, animated images never complete
+        if (image instanceof ToolkitImage) {
+            ToolkitImage toolkitImage = (ToolkitImage) image;
+
+            if ((Toolkit.getDefaultToolkit().checkImage(toolkitImage, -1, -1, null) & ImageObserver.ALLBITS) != 0) {
+                return toolkitImage.getBufferedImage();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Resolves the target width of an image, substituting negative values like
+     * {@link Image#getScaledInstance(int, int, int)} to maintain the aspect ratio.
+     */
+    static int getScaledWidth(int sourceWidth, int sourceHeight, int width, int height) {
+        if (width < 0) {
+            return height < 0 ? sourceWidth : Math.max(1, sourceWidth * height / sourceHeight);
+        }
+        return width;
+    }
+
+    /**
+     * Resolves the target height of an image, substituting negative values like
+     * {@link Image#getScaledInstance(int, int, int)} to maintain the aspect ratio.
+     */
+    static int getScaledHeight(int sourceWidth, int sourceHeight, int width, int height) {
+        if (height < 0) {
+            return width < 0 ? sourceHeight : Math.max(1, sourceHeight * width / sourceWidth);
+        }
+        return height;
+    }
+
+    /**
+     * Scales the image to the specified size using the algorithm requested by the hints.
+     *
+     * @param image  the image to scale
+     * @param width  the width of the scaled image
+     * @param height the height of the scaled image
+     * @param hints  the {@link Image} scaling hints
+     * @return the scaled image
+     */
+    @NotNull
+    static BufferedImage scale(@NotNull BufferedImage image, int width, int height, int hints) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Width (" + width + ") and height (" + height + ") must be non-zero");
+        }
+
+        Object interpolation;
+        boolean progressive;
+        if ((hints & (Image.SCALE_SMOOTH | Image.SCALE_AREA_AVERAGING)) != 0) {
+            interpolation = RenderingHints.VALUE_INTERPOLATION_BICUBIC;
+            progressive = true;
+        } else if ((hints & (Image.SCALE_FAST | Image.SCALE_REPLICATE)) != 0) {
+            interpolation = RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
+            progressive = false;
+        } else {
+            interpolation = RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+            progressive = true;
+        }
+
+        long start = Metrics.start();
+
+        int transparency = image.getTransparency() == Transparency.OPAQUE ? Transparency.OPAQUE : Transparency.TRANSLUCENT;
+
+        BufferedImage current = image;
+        int currentWidth = image.getWidth();
+        int currentHeight = image.getHeight();
+
+        if (progressive) {
+            while (currentWidth > width * 2 || currentHeight > height * 2) {
+                currentWidth = Math.max(width, currentWidth / 2);
+                currentHeight = Math.max(height, currentHeight / 2);
+
+                BufferedImage step = new BufferedImage(currentWidth, currentHeight,
+                        transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+                draw(current, step, interpolation);
+                current = step;
+            }
+        }
+
+        BufferedImage scaled = createCompatibleImage(width, height, transparency);
+        draw(current, scaled, interpolation);
+
+        scaleTimer.record(start);
+
+        return scaled;
+    }
+
+    private static void draw(@NotNull BufferedImage source, @NotNull BufferedImage target, @NotNull Object interpolation) {
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Src);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+            g.drawImage(source, 0, 0, target.getWidth(), target.getHeight(), null);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    @NotNull
+    private static BufferedImage createCompatibleImage(int width, int height, int transparency) {
+        if (!GraphicsEnvironment.isHeadless()) {
+            GraphicsConfiguration configuration = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+
+            return configuration.createCompatibleImage(width, height, transparency);
+        }
+        return new BufferedImage(width, height, transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+    }
+}
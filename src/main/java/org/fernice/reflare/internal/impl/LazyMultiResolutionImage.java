@@ -0,0 +1,173 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sun.awt.image.AbstractMultiResolutionImage;
+
+/**
+ * Multi-resolution image, whose resolution variants are only loaded once they are requested
+ * for the first time. Only the base image is loaded eagerly. Operations on the image, such as
+ * scaling or filtering, are deferred to the resolution variants through {@link #derive(Transform)},
+ * so that they never cause unused resolution variants to be loaded.
+ */
+final class LazyMultiResolutionImage extends AbstractMultiResolutionImage {
+
+    private final BufferedImage base;
+    private final Variants variants;
+
+    /**
+     * @param base   the base image
+     * @param scales the ascending scales of the resolution variants relative to the base image
+     * @param loader the loader of the resolution variants by index of their scale
+     */
+    LazyMultiResolutionImage(@NotNull BufferedImage base, @NotNull double[] scales, @NotNull VariantLoader loader) {
+        this(base, new Variants(scales.clone(), loader));
+    }
+
+    private LazyMultiResolutionImage(@NotNull BufferedImage base, @NotNull Variants variants) {
+        this.base = base;
+        this.variants = variants;
+    }
+
+    @Override
+    protected Image getBaseImage() {
+        return base;
+    }
+
+    @Override
+    public Image getResolutionVariant(int width, int height) {
+        int baseWidth = base.getWidth();
+        int baseHeight = base.getHeight();
+
+        if (width <= baseWidth && height <= baseHeight) {
+            return base;
+        }
+
+        double[] scales = variants.scales;
+        for (int i = 0; i < scales.length; i++) {
+            if (Math.round(baseWidth * scales[i]) >= width && Math.round(baseHeight * scales[i]) >= height) {
+                return variants.get(i);
+            }
+        }
+        return variants.get(scales.length - 1);
+    }
+
+    /**
+     * Returns all resolution variants, which causes all of them to be loaded.
+     */
+    @Override
+    public List<Image> getResolutionVariants() {
+        List<Image> images = new ArrayList<>(variants.scales.length + 1);
+        images.add(base);
+        for (int i = 0; i < variants.scales.length; i++) {
+            images.add(variants.get(i));
+        }
+        return Collections.unmodifiableList(images);
+    }
+
+    /**
+     * Returns the base image and all resolution variants loaded so far.
+     */
+    @NotNull
+    List<Image> getLoadedResolutionVariants() {
+        List<Image> images = new ArrayList<>(variants.scales.length + 1);
+        images.add(base);
+        for (int i = 0; i < variants.scales.length; i++) {
+            Image image = variants.images.get(i);
+            if (image != null) {
+                images.add(image);
+            }
+        }
+        return images;
+    }
+
+    /**
+     * Sets the listener, which is notified after a resolution variant of this image has been
+     * loaded. The listener is called on the loading thread.
+     */
+    void setVariantLoadListener(@Nullable Runnable listener) {
+        variants.listener = listener;
+    }
+
+    /**
+     * Derives an image by applying the transform to all resolution variants. The transform is
+     * applied to the base image immediately and to every resolution variant, once it is requested.
+     * The derived image does not reference this image.
+     */
+    @NotNull
+    LazyMultiResolutionImage derive(@NotNull Transform transform) {
+        Variants variants = this.variants;
+
+        BufferedImage base = transform.apply(this.base, 1);
+
+        return new LazyMultiResolutionImage(base, new Variants(variants.scales, (index) -> transform.apply(variants.get(index), variants.scales[index])));
+    }
+
+    interface VariantLoader {
+
+        @NotNull
+        BufferedImage load(int index);
+    }
+
+    interface Transform {
+
+        /**
+         * @param image the image to transform
+         * @param scale the scale of the image relative to the base image
+         * @return the transformed image
+         */
+        @NotNull
+        BufferedImage apply(@NotNull BufferedImage image, double scale);
+    }
+
+    private static final class Variants {
+
+        final double[] scales;
+        final AtomicReferenceArray<BufferedImage> images;
+        private final VariantLoader loader;
+
+        @Nullable
+        volatile Runnable listener;
+
+        Variants(@NotNull double[] scales, @NotNull VariantLoader loader) {
+            this.scales = scales;
+            this.images = new AtomicReferenceArray<>(scales.length);
+            this.loader = loader;
+        }
+
+        @NotNull
+        BufferedImage get(int index) {
+            BufferedImage image = images.get(index);
+            if (image == null) {
+                boolean loaded = false;
+                synchronized (this) {
+                    image = images.get(index);
+                    if (image == null) {
+                        image = loader.load(index);
+                        images.set(index, image);
+                        loaded = true;
+                    }
+                }
+
+                // notified outside of the lock, as the listener might acquire locks of its own
+                Runnable listener = this.listener;
+                if (loaded && listener != null) {
+                    listener.run();
+                }
+            }
+            return image;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.nio.MappedByteBuffer;
+import org.jetbrains.annotations.NotNull;
+import sun.misc.Cleaner;
+import sun.nio.ch.DirectBuffer;
+
+/**
+ * Releases mappings of files explicitly instead of leaving them to the garbage collector. Windows
+ * refuses to replace or delete a file as long as it is mapped.
+ */
+final class MappedBuffers {
+
+    private MappedBuffers() {
+    }
+
+    /**
+     * Unmaps the buffer. Neither the buffer nor any buffer derived from it must be accessed
+     * afterwards, which would otherwise crash the virtual machine.
+     */
+    static void unmap(@NotNull MappedByteBuffer buffer) {
+        Cleaner cleaner = ((DirectBuffer) buffer).cleaner();
+        if (cleaner != null) {
+            cleaner.clean();
+        }
+    }
+}
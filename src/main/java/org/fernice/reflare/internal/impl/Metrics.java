@@ -0,0 +1,315 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.lang.management.ManagementFactory;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Instrumentation of the accessor implementations consisting of timers, counters and gauges.
+ * Timers and counters only record while the metrics are enabled, which costs a single volatile
+ * read otherwise. Gauges expose the statistics the accessors keep anyway and are always available.
+ * <p>
+ * The metrics are enabled through the {@code org.fernice.reflare.metrics} system property or
+ * {@link #setEnabled(boolean)}. Once enabled, they are published as the platform MBean
+ * {@code org.fernice.reflare:type=Metrics}, and are available through {@link #snapshot()} at any time.
+ */
+public final class Metrics {
+
+    /**
+     * System property enabling the metrics, which are disabled by default.
+     */
+    public static final String METRICS_PROPERTY = "org.fernice.reflare.metrics";
+
+    private static final String OBJECT_NAME = "org.fernice.reflare:type=Metrics";
+
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private static volatile boolean enabled;
+    private static final AtomicBoolean published = new AtomicBoolean();
+
+    static {
+        if (Boolean.parseBoolean(AccessController.doPrivileged((PrivilegedAction<String>) () -> System.getProperty(METRICS_PROPERTY)))) {
+            setEnabled(true);
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Enables or disables the recording of timers and counters. Enabling the metrics for the
+     * first time publishes them as platform MBean.
+     *
+     * @param enabled whether timers and counters should record
+     */
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+
+        if (enabled && !published.getAndSet(true)) {
+            publish();
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the current value of all metrics by name ordered by name. Timers contribute their
+     * count, their total and maximum duration and the 50th, 90th and 99th percentile of their
+     * durations in nanoseconds, the percentiles being the upper bounds of power of two buckets
+     * limited to the maximum duration.
+     */
+    @NotNull
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            entry.getValue().snapshot(entry.getKey(), snapshot);
+        }
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().value.sum());
+        }
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Resets all timers and counters.
+     */
+    public static void reset() {
+        for (Timer timer : timers.values()) {
+            timer.reset();
+        }
+        for (Counter counter : counters.values()) {
+            counter.value.reset();
+        }
+    }
+
+    @NotNull
+    static Timer timer(@NotNull String name) {
+        return timers.computeIfAbsent(name, (n) -> new Timer());
+    }
+
+    @NotNull
+    static Counter counter(@NotNull String name) {
+        return counters.computeIfAbsent(name, (n) -> new Counter());
+    }
+
+    static void gauge(@NotNull String name, @NotNull LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * Returns the start of a measurement for {@link Timer#record(long)} or zero, if the metrics
+     * are disabled.
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    private static void publish() {
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), new ObjectName(OBJECT_NAME));
+            } catch (JMException | SecurityException e) {
+                // the metrics remain available through the snapshot
+            }
+            return null;
+        });
+    }
+
+    static final class Timer {
+
+        private static final int BUCKETS = 64;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        // bucket i counts the durations in [2^(i-1), 2^i)
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        Timer() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Records the duration since the start obtained from {@link Metrics#start()}.
+         */
+        void record(long start) {
+            if (start == 0) {
+                return;
+            }
+
+            add(Math.max(0, System.nanoTime() - start));
+        }
+
+        /**
+         * Records the specified duration, if the metrics are enabled.
+         */
+        void recordNanos(long nanos) {
+            if (enabled) {
+                add(Math.max(0, nanos));
+            }
+        }
+
+        private void add(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+        }
+
+        void snapshot(@NotNull String name, @NotNull Map<String, Long> snapshot) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+
+            long max = maxNanos.get();
+
+            snapshot.put(name + ".count", count.sum());
+            snapshot.put(name + ".totalNanos", totalNanos.sum());
+            snapshot.put(name + ".maxNanos", max);
+            // the upper bound of a bucket might exceed any duration actually recorded
+            snapshot.put(name + ".p50Nanos", Math.min(max, percentile(counts, total, 0.50)));
+            snapshot.put(name + ".p90Nanos", Math.min(max, percentile(counts, total, 0.90)));
+            snapshot.put(name + ".p99Nanos", Math.min(max, percentile(counts, total, 0.99)));
+        }
+
+        private static long percentile(@NotNull long[] counts, long total, double percentile) {
+            long threshold = (long) Math.ceil(total * percentile);
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= threshold && cumulative > 0) {
+                    return i == 0 ? 0 : 1L << Math.min(62, i);
+                }
+            }
+            return 0;
+        }
+
+        void reset() {
+            count.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+        }
+    }
+
+    static final class Counter {
+
+        private final LongAdder value = new LongAdder();
+
+        void add(long amount) {
+            if (enabled) {
+                value.add(amount);
+            }
+        }
+
+        void increment() {
+            if (enabled) {
+                value.increment();
+            }
+        }
+    }
+
+    /**
+     * Exposes the snapshot as read-only attributes. The attributes are resolved with every
+     * request, as metrics register lazily once their accessor is first used.
+     */
+    private static final class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> snapshot = snapshot();
+
+            AttributeList list = new AttributeList(attributes.length);
+            for (String attribute : attributes) {
+                Long value = snapshot.get(attribute);
+                if (value != null) {
+                    list.add(new Attribute(attribute, value));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Nullable
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            if ("reset".equals(actionName)) {
+                reset();
+            }
+            return null;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : snapshot().keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+            }
+
+            MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Resets all timers and counters", null, "void", MBeanOperationInfo.ACTION);
+
+            return new MBeanInfo(Metrics.class.getName(), "Metrics of the reflare accessor implementations",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[]{reset}, null);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.awt.Image;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import sun.awt.image.AbstractMultiResolutionImage;
+
+/**
+ * Multi-resolution image consisting of eagerly produced images, ordered by ascending size. Unlike
+ * the images created through the toolkit, the variants are painted directly without being produced
+ * through an image producer first.
+ */
+final class MultiResolutionBufferedImage extends AbstractMultiResolutionImage {
+
+    private final Image[] variants;
+
+    MultiResolutionBufferedImage(@NotNull Image... variants) {
+        if (variants.length == 0) {
+            throw new IllegalArgumentException("at least one variant is required");
+        }
+        this.variants = variants.clone();
+    }
+
+    @Override
+    protected Image getBaseImage() {
+        return variants[0];
+    }
+
+    @Override
+    public Image getResolutionVariant(int width, int height) {
+        for (Image variant : variants) {
+            if (variant.getWidth(null) >= width && variant.getHeight(null) >= height) {
+                return variant;
+            }
+        }
+        return variants[variants.length - 1];
+    }
+
+    @Override
+    public List<Image> getResolutionVariants() {
+        return Collections.unmodifiableList(Arrays.asList(variants));
+    }
+}
@@ -6,13 +6,26 @@
 
 package org.fernice.reflare.internal.impl;
 
+import java.awt.Color;
 import java.awt.Component;
 import java.awt.Window;
-import java.lang.reflect.InvocationTargetException;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Method;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.swing.JPanel;
 import javax.swing.JRootPane;
 import javax.swing.Popup;
 import javax.swing.PopupFactory;
@@ -26,20 +39,39 @@ public final class ScreenPopupFactory extends PopupFactory {
     private static final Float TRANSLUCENT = 245f / 255f;
     private static final Float OPAQUE = 1f;
 
-    private static final @NotNull Method heavyWeightPopupFactoryMethod;
+    // number of heavy weight popups PopupFactory caches per window
+    private static final int MAX_POOLED_POPUPS = 5;
+
+    private static final @NotNull MethodHandle heavyWeightPopupFactoryMethod;
 
     static {
         try {
-            heavyWeightPopupFactoryMethod = AccessController.doPrivileged((PrivilegedExceptionAction<Method>) () -> {
+            heavyWeightPopupFactoryMethod = AccessController.doPrivileged((PrivilegedExceptionAction<MethodHandle>) () -> {
                 Method method = PopupFactory.class.getDeclaredMethod("getHeavyWeightPopup", Component.class, Component.class, int.class, int.class);
                 method.setAccessible(true);
-                return method;
+                return MethodHandles.lookup().unreflect(method);
             });
         } catch (PrivilegedActionException e) {
             throw new IllegalStateException("failed to access necessary resources for ScreenPopupFactory", e);
         }
     }
 
+    private static final LongAdder popupCount = new LongAdder();
+    private static final LongAdder coldPopupCount = new LongAdder();
+    private static final LongAdder popupNanos = new LongAdder();
+    private static final LongAccumulator maxPopupNanos = new LongAccumulator(Math::max, 0);
+
+    private static final Metrics.Timer popupTimer = Metrics.timer("popup.create");
+
+    static {
+        Metrics.gauge("popup.count", ScreenPopupFactory::getPopupCount);
+        Metrics.gauge("popup.cold", ScreenPopupFactory::getColdPopupCount);
+    }
+
+    // root panes awaiting a shadow revalidation, confined to the event dispatch thread
+    private static final Set<JRootPane> shadowRevalidations = Collections.newSetFromMap(new IdentityHashMap<>());
+    private static long shadowRevalidationCount;
+
     private boolean active = true;
 
     public void setActive(boolean var1) {
@@ -56,9 +88,11 @@ public final class ScreenPopupFactory extends PopupFactory {
 
     private Popup getHeavyWeightPopup(Component comp, Component invoker, int x, int y) {
         try {
-            return (Popup) heavyWeightPopupFactoryMethod.invoke(this, comp, invoker, x, y);
-        } catch (IllegalAccessException | InvocationTargetException e) {
-            throw new IllegalStateException("failed to invoke PopupFactory for heavy weight popup", e);
+            return (Popup) heavyWeightPopupFactoryMethod.invokeExact((PopupFactory) this, comp, invoker, x, y);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("failed to invoke PopupFactory for heavy weight popup", t);
         }
     }
 
@@ -67,6 +101,8 @@ public final class ScreenPopupFactory extends PopupFactory {
             throw new IllegalArgumentException("Popup.getPopup must be passed non-null contents");
         }
 
+        long start = System.nanoTime();
+
         final Popup popup;
         if (active) {
             popup = getHeavyWeightPopup(comp, invoker, x, y);
@@ -77,34 +113,146 @@ public final class ScreenPopupFactory extends PopupFactory {
         // Make the popup semi-translucent if it is a heavy weight
         // see <rdar://problem/3547670> JPopupMenus have incorrect background
         final Window w = getWindow(invoker);
-        if (w == null) {
-            return popup;
-        }
+        if (w != null && w instanceof RootPaneContainer) {
+            // recycled and pre-warmed popups already own their native window
+            if (active && !w.isDisplayable()) {
+                coldPopupCount.increment();
+            }
 
-        if (!(w instanceof RootPaneContainer)) {
-            return popup;
+            configureWindow(w, invoker);
         }
+
+        long nanos = System.nanoTime() - start;
+        popupCount.increment();
+        popupNanos.add(nanos);
+        maxPopupNanos.accumulate(nanos);
+        popupTimer.recordNanos(nanos);
+
+        return popup;
+    }
+
+    private void configureWindow(Window w, Component invoker) {
         final JRootPane popupRootPane = ((RootPaneContainer) w).getRootPane();
 
-        // we need to set every time, because PopupFactory caches the heavy weight
+        // we need to set every time, because PopupFactory caches the heavy weight,
+        // but only the properties that actually differ are changed
         // TODO: CPlatformWindow constants?
         if (active) {
-            popupRootPane.putClientProperty("Window.alpha", OPAQUE);
-            popupRootPane.putClientProperty("Window.shadow", Boolean.TRUE);
-            popupRootPane.putClientProperty("apple.awt._windowFadeDelegate", invoker);
-
-            w.setBackground(UIManager.getColor("PopupMenu.translucentBackground"));
-            popupRootPane.putClientProperty("apple.awt.draggableWindowBackground", Boolean.FALSE);
-            SwingUtilities.invokeLater(new Runnable() {
-                public void run() {
-                    popupRootPane.putClientProperty("apple.awt.windowShadow.revalidateNow", Math.random());
+            putClientProperty(popupRootPane, "Window.alpha", OPAQUE);
+            putClientProperty(popupRootPane, "Window.shadow", Boolean.TRUE);
+            putClientProperty(popupRootPane, "apple.awt._windowFadeDelegate", invoker);
+
+            Color background = UIManager.getColor("PopupMenu.translucentBackground");
+            if (!Objects.equals(w.getBackground(), background)) {
+                w.setBackground(background);
+            }
+            putClientProperty(popupRootPane, "apple.awt.draggableWindowBackground", Boolean.FALSE);
+
+            scheduleShadowRevalidation(popupRootPane);
+        } else {
+            putClientProperty(popupRootPane, "Window.alpha", OPAQUE);
+            putClientProperty(popupRootPane, "Window.shadow", Boolean.FALSE);
+        }
+    }
+
+    private static void putClientProperty(JRootPane rootPane, String key, Object value) {
+        if (rootPane.getClientProperty(key) != value) {
+            rootPane.putClientProperty(key, value);
+        }
+    }
+
+    /**
+     * Schedules the revalidation of the window shadow of the root pane. All revalidations requested
+     * until the next event are performed by a single event.
+     */
+    private static void scheduleShadowRevalidation(JRootPane rootPane) {
+        boolean scheduled = !shadowRevalidations.isEmpty();
+        shadowRevalidations.add(rootPane);
+
+        if (scheduled) {
+            return;
+        }
+
+        SwingUtilities.invokeLater(() -> {
+            List<JRootPane> rootPanes = new ArrayList<>(shadowRevalidations);
+            shadowRevalidations.clear();
+
+            // every revalidation requires a distinct value, otherwise no change is fired
+            for (JRootPane pane : rootPanes) {
+                pane.putClientProperty("apple.awt.windowShadow.revalidateNow", ++shadowRevalidationCount);
+            }
+        });
+    }
+
+    /**
+     * Creates heavy weight popups for the window of the owner ahead of their first use, so that
+     * showing a popup does not need to create a native window first. The popups are pooled by the
+     * {@link PopupFactory}, which pools at most five popups per window, and are disposed together
+     * with the window. If the window is not showing yet, the popups are created once it has
+     * been opened. Must be called on the event dispatch thread.
+     *
+     * @param owner the owner of the future popups or its window
+     * @param count the number of popups to create
+     */
+    public void prewarmHeavyWeightPopups(Component owner, int count) {
+        Window window = owner instanceof Window ? (Window) owner : SwingUtilities.getWindowAncestor(owner);
+        if (window == null || !(window instanceof RootPaneContainer) || count <= 0) {
+            return;
+        }
+
+        if (!window.isShowing()) {
+            window.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowOpened(WindowEvent e) {
+                    window.removeWindowListener(this);
+                    prewarmHeavyWeightPopups(window, count);
                 }
             });
-        } else {
-            popupRootPane.putClientProperty("Window.alpha", OPAQUE);
-            popupRootPane.putClientProperty("Window.shadow", Boolean.FALSE);
+            return;
         }
 
-        return popup;
+        // popups are looked up by the window ancestor of the owner
+        Component popupOwner = ((RootPaneContainer) window).getRootPane();
+
+        List<Popup> popups = new ArrayList<>(Math.min(count, MAX_POOLED_POPUPS));
+        for (int i = 0; i < Math.min(count, MAX_POOLED_POPUPS); i++) {
+            JPanel contents = new JPanel();
+            Popup popup = getHeavyWeightPopup(popupOwner, contents, 0, 0);
+
+            Window w = getWindow(contents);
+            if (w != null && w instanceof RootPaneContainer) {
+                w.addNotify();
+                configureWindow(w, contents);
+            }
+
+            popups.add(popup);
+        }
+
+        // hiding returns the popups into the pool of the window
+        for (Popup popup : popups) {
+            popup.hide();
+        }
+    }
+
+    /**
+     * Returns the number of popups created by all screen popup factories.
+     */
+    public static long getPopupCount() {
+        return popupCount.sum();
+    }
+
+    /**
+     * Returns the number of heavy weight popups, which had to create their native window.
+     */
+    public static long getColdPopupCount() {
+        return coldPopupCount.sum();
+    }
+
+    public static long getTotalPopupNanos() {
+        return popupNanos.sum();
+    }
+
+    public static long getMaxPopupNanos() {
+        return maxPopupNanos.get();
     }
 }
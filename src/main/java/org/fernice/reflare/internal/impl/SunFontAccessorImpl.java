@@ -7,6 +7,7 @@
 package org.fernice.reflare.internal.impl;
 
 import org.fernice.reflare.internal.SunFontHelper.SunFontAccessor;
+import org.fernice.reflare.internal.impl.FontRegistry.FontExtension;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import sun.font.CompositeFont;
@@ -14,36 +15,48 @@ import sun.font.Font2D;
 import sun.font.FontAccess;
 
 import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class SunFontAccessorImpl implements SunFontAccessor {
 
-    private static final String[] WEIGHT_NAMES = { //
-            "thin", "light", "ultralight", "ultra light", "ultra-light", //
-            "extralight", "extlt", "extra light", "extra-light", //
-            "demilight", "demi light", "demi-light", //
-            "normal", "regular", "medium", "med", //
-            "bold", "heavy", "black", "blk", //
-            "semibold", "sembd", "semi bold", "semi-bold", //
-            "demibold", "demi", "demi bold", "demi-bold", //
-            "extrabold", "extbd", "extra bold", "extra-bold", //
-            "ultrabold", "ultra bold", "ultra-bold", //
-    };
-
-    private static final int MERGING_STRATEGY_COMBINE = 0;
-    private static final int MERGING_STRATEGY_KEEP = 1;
-    private static final int MERGING_STRATEGY_OVERRIDE = 2;
+    /**
+     * System property enabling the watching of the font directories, which is disabled by default.
+     */
+    public static final String WATCH_FONT_DIRECTORIES_PROPERTY = "org.fernice.reflare.watchFontDirectories";
 
     private static final AtomicBoolean initialized = new AtomicBoolean();
     private static final CountDownLatch initializationLatch = new CountDownLatch(1);
 
-    private static volatile Map<String, List<FontPeer>> fontFamilies = new HashMap<>();
+    private static final AtomicReference<FontRegistry> registry = new AtomicReference<>(FontRegistry.EMPTY);
 
-    private static final Set<Font> fontExtensions = new HashSet<>();
-    private static final Set<Font> fontExtensionOverrides = new HashSet<>();
+    // fingerprint of the catalog the system font families have been loaded from or stored to
+    private static volatile long catalogFingerprint;
+    private static final AtomicBoolean catalogWriterRegistered = new AtomicBoolean();
+
+    private static final Object watcherLock = new Object();
+    // guarded by watcherLock
+    private static FontDirectoryWatcher watcher;
+
+    private static final Metrics.Timer initializeTimer = Metrics.timer("font.initialize");
+    private static final Metrics.Timer catalogLoadTimer = Metrics.timer("font.catalog.load");
+    private static final Metrics.Timer scanTimer = Metrics.timer("font.scan");
+    private static final Metrics.Timer findTimer = Metrics.timer("font.find");
+    private static final Metrics.Timer registerTimer = Metrics.timer("font.register");
+    private static final Metrics.Timer resolveTimer = Metrics.timer("font.resolve");
+
+    static {
+        Metrics.gauge("font.families", () -> registry.get().fontFamilyIndex.size());
+        Metrics.gauge("font.version", () -> registry.get().version);
+    }
 
     @Nullable
     @Override
@@ -52,41 +65,206 @@ public class SunFontAccessorImpl implements SunFontAccessor {
             return null;
         }
 
-        List<FontPeer> fontFamily = fontFamilies.get(family.toLowerCase());
+        long start = Metrics.start();
+        try {
+            return registry.get().fontFamilyIndex.find(family, weight, italic);
+        } finally {
+            findTimer.record(start);
+        }
+    }
 
-        if (fontFamily != null && !fontFamily.isEmpty()) {
-            int weightDistance = Integer.MAX_VALUE;
-            Font matchingFont = null;
+    /**
+     * Returns the font best suited to display the entire text, which is the font of the first of
+     * the families able to display every code point of the text. If none of them is able to, the
+     * font able to display the most code points is returned, preferring earlier families on ties.
+     *
+     * @param text     the text to display
+     * @param families the font families in the order of preference
+     * @param weight   the preferred weight
+     * @param italic   whether an italic font is preferred
+     * @return the best font or {@code null}, if none of the font families exists
+     */
+    @Nullable
+    public Font findFont(@NotNull CharSequence text, @NotNull List<String> families, int weight, boolean italic) {
+        FontPeer[] candidates = findCandidates(families, weight, italic);
+        if (candidates.length == 0) {
+            return null;
+        }
 
-            for (FontPeer font : fontFamily) {
-                boolean fontItalic = font.font2D.getStyle() == 2 || font.font2D.getStyle() == 3;
+        long start = Metrics.start();
+        try {
+            int codePoints = Character.codePointCount(text, 0, text.length());
+
+            FontPeer best = candidates[0];
+            int bestCount = -1;
+
+            for (FontPeer candidate : candidates) {
+                int count = 0;
+                for (int i = 0; i < text.length(); ) {
+                    int codePoint = Character.codePointAt(text, i);
+                    if (candidate.canDisplay(codePoint)) {
+                        count++;
+                    }
+                    i += Character.charCount(codePoint);
+                }
+
+                if (count > bestCount) {
+                    best = candidate;
+                    bestCount = count;
 
-                if (fontItalic != italic) {
-                    continue;
+                    if (count == codePoints) {
+                        break;
+                    }
                 }
+            }
+
+            return best.getFont();
+        } finally {
+            resolveTimer.record(start);
+        }
+    }
+
+    /**
+     * Divides the text into runs, each of which is displayed by a single font. Every code point is
+     * assigned the font of the first of the families able to display it. Combining marks and format
+     * characters stay with the font of the preceding code point, if that font is able to display
+     * them, and code points none of the fonts is able to display always do. Whether a font is able
+     * to display a code point is determined through the coverage of the font, which is computed
+     * once per font and persisted with the font catalog.
+     *
+     * @param text     the text to display
+     * @param families the font families in the order of preference
+     * @param weight   the preferred weight
+     * @param italic   whether an italic font is preferred
+     * @return the runs of the text in order, empty if the text is empty or none of the font families exists
+     */
+    @NotNull
+    public List<FontRun> findFontRuns(@NotNull CharSequence text, @NotNull List<String> families, int weight, boolean italic) {
+        FontPeer[] candidates = findCandidates(families, weight, italic);
+        if (candidates.length == 0 || text.length() == 0) {
+            return Collections.emptyList();
+        }
 
-                int distance = Math.abs(weight - getFontWeight(font.font2D));
+        long start = Metrics.start();
+        try {
+            List<FontRun> runs = new ArrayList<>();
+
+            FontPeer current = null;
+            int runStart = 0;
+
+            for (int i = 0; i < text.length(); ) {
+                int codePoint = Character.codePointAt(text, i);
+
+                FontPeer peer;
+                if (current != null && isClusterExtension(codePoint) && current.canDisplay(codePoint)) {
+                    peer = current;
+                } else {
+                    peer = null;
+                    for (FontPeer candidate : candidates) {
+                        if (candidate.canDisplay(codePoint)) {
+                            peer = candidate;
+                            break;
+                        }
+                    }
+                    if (peer == null) {
+                        peer = current != null ? current : candidates[0];
+                    }
+                }
 
-                if (distance < weightDistance) {
-                    weightDistance = distance;
-                    matchingFont = font.font;
+                if (peer != current) {
+                    if (current != null) {
+                        runs.add(new FontRun(runStart, i, current.getFont()));
+                    }
+                    current = peer;
+                    runStart = i;
                 }
+
+                i += Character.charCount(codePoint);
             }
 
-            return matchingFont;
-        } else {
-            return null;
+            runs.add(new FontRun(runStart, text.length(), current.getFont()));
+
+            return runs;
+        } finally {
+            resolveTimer.record(start);
         }
     }
 
-    private boolean ensureInitialized(@NotNull String family) {
-        // Force the full initialization of the FontManager
+    @NotNull
+    private FontPeer[] findCandidates(@NotNull List<String> families, int weight, boolean italic) {
+        if (families.isEmpty() || !ensureInitialized(families.get(0))) {
+            return new FontPeer[0];
+        }
+
+        FontFamilyIndex fontFamilyIndex = registry.get().fontFamilyIndex;
+
+        List<FontPeer> candidates = new ArrayList<>(families.size());
+        for (String family : families) {
+            FontPeer peer = fontFamilyIndex.findPeer(family, weight, italic);
+            if (peer != null && !candidates.contains(peer)) {
+                candidates.add(peer);
+            }
+        }
+        return candidates.toArray(new FontPeer[0]);
+    }
+
+    private static boolean isClusterExtension(int codePoint) {
+        switch (Character.getType(codePoint)) {
+            case Character.NON_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.COMBINING_SPACING_MARK:
+            case Character.FORMAT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the version of the currently published font families. The version changes with
+     * every modification, which allows callers to detect that caches derived from the font
+     * families have become stale.
+     *
+     * @return the current version of the font families
+     */
+    public long getFontFamiliesVersion() {
+        return registry.get().version;
+    }
+
+    /**
+     * Initializes the font families, if that has not happened yet, or waits for the initialization
+     * in progress to complete.
+     */
+    static void initializeFontFamilies() {
+        ensureInitialized(Font.DIALOG);
+    }
+
+    private static boolean ensureInitialized(@NotNull String family) {
+        if (initializationLatch.getCount() == 0) {
+            return true;
+        }
+
         if (!initialized.getAndSet(true)) {
-            new Font(family, Font.BOLD | Font.ITALIC, 12);
+            long start = Metrics.start();
+            try {
+                Map<String, List<FontPeer>> systemFontFamilies = loadFontCatalog();
+
+                if (systemFontFamilies == null) {
+                    // Force the full initialization of the FontManager
+                    new Font(family, Font.BOLD | Font.ITALIC, 12);
+
+                    systemFontFamilies = scanSystemFontFamilies();
+                }
 
-            refresh();
+                publishSystemFontFamilies(systemFontFamilies);
 
-            initializationLatch.countDown();
+                if (Boolean.parseBoolean(AccessController.doPrivileged((PrivilegedAction<String>) () -> System.getProperty(WATCH_FONT_DIRECTORIES_PROPERTY)))) {
+                    setFontDirectoryWatching(true);
+                }
+            } finally {
+                initializationLatch.countDown();
+                initializeTimer.record(start);
+            }
         } else {
             try {
                 initializationLatch.await();
@@ -100,131 +278,357 @@ public class SunFontAccessorImpl implements SunFontAccessor {
 
     @Override
     public boolean registerFontExtension(@NotNull Font font, boolean override) {
-        if (override) {
-            fontExtensions.remove(font);
-            if (!fontExtensionOverrides.add(font)) {
-                return false;
+        return registerFontExtensions(Collections.singletonList(font), override);
+    }
+
+    /**
+     * Registers all of the specified fonts as font extensions at once. Only the font families
+     * the fonts belong to are merged again, which makes the cost of the registration proportional
+     * to the number of fonts registered rather than to the number of fonts known overall.
+     *
+     * @param fonts    the fonts to register
+     * @param override whether the fonts should replace fonts of equal weight and style
+     * @return {@code true} if at least one of the fonts has been merged into a font family
+     */
+    public boolean registerFontExtensions(@NotNull Collection<Font> fonts, boolean override) {
+        if (fonts.isEmpty() || !ensureInitialized(fonts.iterator().next().getFamily())) {
+            return false;
+        }
+
+        long start = Metrics.start();
+        try {
+            List<FontExtension> extensions = new ArrayList<>(fonts.size());
+            for (Font font : fonts) {
+                extensions.add(new FontExtension(font));
             }
-        } else {
-            fontExtensionOverrides.remove(font);
-            if (!fontExtensions.add(font)) {
-                return false;
+
+            while (true) {
+                FontRegistry current = registry.get();
+                FontRegistry.Update update = current.withFontExtensions(extensions, override);
+
+                if (update.registry == current || registry.compareAndSet(current, update.registry)) {
+                    return update.result;
+                }
             }
+        } finally {
+            registerTimer.record(start);
         }
-        return recomputeFontFamilies(font);
+    }
+
+    /**
+     * Registers the fonts of all font files in the directory and its subdirectories as font
+     * extensions. The files are parsed in parallel and all fonts are registered at once, like
+     * through {@link #registerFontExtensions(Collection, boolean)}. Files that are not valid
+     * font files are skipped, as are TrueType collections ({@code .ttc}), of which only the first
+     * font could be created.
+     *
+     * @param directory the directory containing the font files
+     * @param override  whether the fonts should replace fonts of equal weight and style
+     * @return the fonts created from the font files
+     * @throws IOException if the directory cannot be read
+     */
+    @NotNull
+    public List<Font> registerFontDirectory(@NotNull Path directory, boolean override) throws IOException {
+        List<Font> fonts = FontLoader.loadDirectory(directory);
+        registerFontExtensions(fonts, override);
+        return fonts;
+    }
+
+    /**
+     * Registers the fonts of all font files in the resource directory of the class loader and its
+     * subdirectories as font extensions, which may be located in directories as well as in jars.
+     * The files are parsed in parallel and all fonts are registered at once, like through
+     * {@link #registerFontExtensions(Collection, boolean)}. Files that are not valid font files
+     * are skipped, as are TrueType collections ({@code .ttc}), of which only the first font could
+     * be created.
+     *
+     * @param classLoader the class loader to look up the resource directory through
+     * @param directory   the resource directory containing the font files
+     * @param override    whether the fonts should replace fonts of equal weight and style
+     * @return the fonts created from the font files
+     * @throws IOException if the resource directory cannot be read
+     */
+    @NotNull
+    public List<Font> registerFontResources(@NotNull ClassLoader classLoader, @NotNull String directory, boolean override) throws IOException {
+        List<Font> fonts = FontLoader.loadResources(classLoader, directory);
+        registerFontExtensions(fonts, override);
+        return fonts;
     }
 
     @Override
     public boolean unregisterFontExtension(@NotNull Font font) {
-        boolean result = fontExtensions.remove(font);
-        result |= fontExtensionOverrides.remove(font);
-        return result;
+        return unregisterFontExtensions(Collections.singletonList(font));
+    }
+
+    /**
+     * Unregisters all of the specified fonts at once. Only the font families the fonts belonged
+     * to are merged again. Cached metrics of the fonts are evicted.
+     *
+     * @param fonts the fonts to unregister
+     * @return {@code true} if at least one of the fonts had been registered
+     */
+    public boolean unregisterFontExtensions(@NotNull Collection<Font> fonts) {
+        while (true) {
+            FontRegistry current = registry.get();
+            FontRegistry.Update update = current.withoutFontExtensions(fonts);
+
+            if (update.registry == current || registry.compareAndSet(current, update.registry)) {
+                if (update.result) {
+                    SwingUtilitiesAccessorImpl.evictFonts(fonts);
+                }
+                return update.result;
+            }
+        }
+    }
+
+    /**
+     * Enables or disables the watching of the font directories. While enabled, fonts installed
+     * into or removed from the font directories are applied to the font families in the background
+     * without rescanning all fonts. Only fonts installed while watching can be removed again.
+     *
+     * @param enabled whether the font directories should be watched
+     */
+    public static void setFontDirectoryWatching(boolean enabled) {
+        synchronized (watcherLock) {
+            if (enabled && watcher == null) {
+                try {
+                    watcher = FontDirectoryWatcher.start(new SunFontAccessorImpl());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            } else if (!enabled && watcher != null) {
+                watcher.stop();
+                watcher = null;
+            }
+        }
+    }
+
+    public static boolean isFontDirectoryWatching() {
+        synchronized (watcherLock) {
+            return watcher != null;
+        }
     }
 
     @Override
     public void refresh() {
-        recomputeFontFamilies(null);
+        publishSystemFontFamilies(scanSystemFontFamilies());
     }
 
-    private boolean recomputeFontFamilies(@Nullable Font target) {
-        boolean targetResult;
+    private static void publishSystemFontFamilies(@NotNull Map<String, List<FontPeer>> systemFontFamilies) {
+        while (true) {
+            FontRegistry current = registry.get();
 
-        Map<String, List<FontPeer>> fontFamilies = new HashMap<>();
+            if (registry.compareAndSet(current, current.withSystemFontFamilies(systemFontFamilies))) {
+                return;
+            }
+        }
+    }
 
-        Font[] fonts = GraphicsEnvironment.getLocalGraphicsEnvironment().getAllFonts();
-        targetResult = mergeFontFamilies(fontFamilies, fonts, MERGING_STRATEGY_COMBINE, target);
+    @Nullable
+    private static Map<String, List<FontPeer>> loadFontCatalog() {
+        File catalogFile = FontCatalog.getCatalogFile();
+        if (catalogFile == null) {
+            return null;
+        }
 
-        Font[] fontExtensions = SunFontAccessorImpl.fontExtensions.toArray(new Font[0]);
-        targetResult |= mergeFontFamilies(fontFamilies, fontExtensions, MERGING_STRATEGY_KEEP, target);
+        long start = Metrics.start();
+        try {
+            long fingerprint = FontCatalog.computeFingerprint();
 
-        Font[] fontExtensionOverrides = SunFontAccessorImpl.fontExtensionOverrides.toArray(new Font[0]);
-        targetResult |= mergeFontFamilies(fontFamilies, fontExtensionOverrides, MERGING_STRATEGY_OVERRIDE, target);
+            Map<String, List<FontPeer>> fontFamilies = FontCatalog.load(catalogFile, fingerprint);
+            if (fontFamilies != null) {
+                registerCatalogWriter(catalogFile, fingerprint);
+            }
+            return fontFamilies;
+        } finally {
+            catalogLoadTimer.record(start);
+        }
+    }
 
-        SunFontAccessorImpl.fontFamilies = fontFamilies;
+    @NotNull
+    private static Map<String, List<FontPeer>> scanSystemFontFamilies() {
+        long start = Metrics.start();
 
-        return targetResult;
-    }
+        File catalogFile = FontCatalog.getCatalogFile();
+        // fingerprint before scanning, a concurrent change must rather invalidate the catalog
+        long fingerprint = catalogFile != null ? FontCatalog.computeFingerprint() : 0;
+
+        Font[] fonts = GraphicsEnvironment.getLocalGraphicsEnvironment().getAllFonts();
+        Map<String, List<FontPeer>> fontFamilies = Collections.unmodifiableMap(FontRegistry.mergeSystemFontFamilies(fonts));
 
-    private boolean mergeFontFamilies(@NotNull Map<String, List<FontPeer>> fontFamilies, @NotNull Font[] fonts, int mergingStrategy, @Nullable Font target) {
-        boolean targetResult = false;
+        if (catalogFile != null) {
+            FontCatalog.store(catalogFile, fingerprint, fontFamilies);
+            registerCatalogWriter(catalogFile, fingerprint);
+        }
+
+        scanTimer.record(start);
+
+        return fontFamilies;
+    }
 
-        for (Font font : fonts) {
-            String familyName = font.getFamily().toLowerCase();
+    /**
+     * Stores the catalog once more on exit, if the coverage of any of the system fonts has been
+     * computed in the meantime.
+     */
+    private static void registerCatalogWriter(@NotNull File catalogFile, long fingerprint) {
+        catalogFingerprint = fingerprint;
 
-            List<FontPeer> fontFamily = fontFamilies.computeIfAbsent(familyName, (s) -> new ArrayList<>());
-            targetResult |= mergeFontFamily(fontFamily, font, mergingStrategy) && font == target;
+        if (catalogWriterRegistered.getAndSet(true)) {
+            return;
+        }
 
-            for (String weightName : WEIGHT_NAMES) {
-                int index = familyName.indexOf(weightName);
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            Thread hook = new Thread(() -> storeFontCoverage(catalogFile), "reflare-font-catalog-writer");
+            Runtime.getRuntime().addShutdownHook(hook);
+            return null;
+        });
+    }
 
-                if (index >= 0) {
-                    String strippedFamilyName = familyName.substring(0, index).trim();
+    private static void storeFontCoverage(@NotNull File catalogFile) {
+        Map<String, List<FontPeer>> systemFontFamilies = registry.get().systemFontFamilies;
+        if (systemFontFamilies == null) {
+            return;
+        }
 
-                    List<FontPeer> additionalFontFamily = fontFamilies.computeIfAbsent(strippedFamilyName, (s) -> new ArrayList<>());
-                    targetResult |= mergeFontFamily(additionalFontFamily, font, mergingStrategy) && font == target;
+        List<FontCoverage> modified = new ArrayList<>();
+        for (List<FontPeer> fontFamily : systemFontFamilies.values()) {
+            for (FontPeer peer : fontFamily) {
+                FontCoverage coverage = peer.peekCoverage();
+                if (coverage != null && coverage.isModified()) {
+                    modified.add(coverage);
                 }
             }
         }
 
-        return targetResult;
+        // coverage, which failed to be stored, remains modified
+        if (!modified.isEmpty() && FontCatalog.store(catalogFile, catalogFingerprint, systemFontFamilies)) {
+            for (FontCoverage coverage : modified) {
+                coverage.markPersisted();
+            }
+        }
     }
 
-    private boolean mergeFontFamily(@NotNull List<FontPeer> fonts, @NotNull Font font, int mergingStrategy) {
-        FontAccess fontAccess = FontAccess.getFontAccess();
-        Font2D font2D = fontAccess.getFont2D(font);
+    /**
+     * Part of a text, which is displayed by a single font.
+     *
+     * @see #findFontRuns(CharSequence, List, int, boolean)
+     */
+    public static final class FontRun {
 
-        int fontWeight = getFontWeight(font2D);
-        boolean fontItalic = font2D.getStyle() == 2 || font2D.getStyle() == 3;
+        private final int start;
+        private final int end;
+        private final Font font;
 
-        while (true) {
-            FontPeer matchingFont = null;
-            for (FontPeer candidateFont : fonts) {
-                Font2D candidateFont2D = candidateFont.font2D;
+        FontRun(int start, int end, @NotNull Font font) {
+            this.start = start;
+            this.end = end;
+            this.font = font;
+        }
 
-                int candidateFontWeight = getFontWeight(candidateFont2D);
-                boolean candidateFontItalic = candidateFont2D.getStyle() == 2 || candidateFont2D.getStyle() == 3;
+        /**
+         * Returns the index of the first char of the run.
+         */
+        public int getStart() {
+            return start;
+        }
 
-                if (candidateFontWeight == fontWeight && candidateFontItalic == fontItalic) {
-                    matchingFont = candidateFont;
-                    break;
-                }
-            }
+        /**
+         * Returns the index following the last char of the run.
+         */
+        public int getEnd() {
+            return end;
+        }
 
-            if (matchingFont != null) {
-                if (mergingStrategy == MERGING_STRATEGY_KEEP) {
-                    return false;
-                }
+        @NotNull
+        public Font getFont() {
+            return font;
+        }
 
-                if (mergingStrategy == MERGING_STRATEGY_OVERRIDE) {
-                    fonts.remove(matchingFont);
-                    continue;
-                }
-            }
-            break;
+        @NotNull
+        @Override
+        public String toString() {
+            return "FontRun[start=" + start + " end=" + end + " font=" + font.getName() + "]";
         }
+    }
 
-        fonts.add(new FontPeer(font, font2D));
+    static final class FontPeer {
 
-        return true;
-    }
+        @NotNull
+        final String name;
+        final int weight;
+        final boolean italic;
 
-    private static final class FontPeer {
+        private volatile Font font;
+        private volatile FontCoverage coverage;
+
+        FontPeer(@NotNull Font font) {
+            Font2D font2D = FontAccess.getFontAccess().getFont2D(font);
+
+            this.name = font.getName();
+            this.weight = getFontWeight(font2D);
+            this.italic = font2D.getStyle() == 2 || font2D.getStyle() == 3;
+            this.font = font;
+        }
+
+        /**
+         * Creates a peer for a system font restored from the {@link FontCatalog}. The font itself
+         * is only created once it is actually requested.
+         */
+        FontPeer(@NotNull String name, int weight, boolean italic) {
+            this.name = name;
+            this.weight = weight;
+            this.italic = italic;
+        }
 
         @NotNull
-        final Font font;
+        Font getFont() {
+            Font font = this.font;
+            if (font == null) {
+                synchronized (this) {
+                    font = this.font;
+                    if (font == null) {
+                        font = new Font(name, Font.PLAIN, 1);
+                        this.font = font;
+                    }
+                }
+            }
+            return font;
+        }
+
+        /**
+         * Returns whether the font is able to display the code point according to its coverage.
+         */
+        boolean canDisplay(int codePoint) {
+            return getCoverage().covers(this, codePoint);
+        }
+
         @NotNull
-        final Font2D font2D;
+        FontCoverage getCoverage() {
+            FontCoverage coverage = this.coverage;
+            if (coverage == null) {
+                synchronized (this) {
+                    coverage = this.coverage;
+                    if (coverage == null) {
+                        coverage = new FontCoverage();
+                        this.coverage = coverage;
+                    }
+                }
+            }
+            return coverage;
+        }
 
-        private FontPeer(@NotNull Font font, @NotNull Font2D font2D) {
-            this.font = font;
-            this.font2D = font2D;
+        /**
+         * Returns the coverage of the font or {@code null}, if it has not been needed so far.
+         */
+        @Nullable
+        FontCoverage peekCoverage() {
+            return coverage;
         }
 
         @NotNull
         @Override
         public String toString() {
-            //            return "Font[" + font2D.toString() + " weight=" + font2D.getWeight() + "]";
-            return "Font[family=" + font.getFamily() + " name=" + font.getName() + " style=" + font2D.getStyle() + " weight=" + getFontWeight(font2D) + "]";
+            return "Font[name=" + name + " italic=" + italic + " weight=" + weight + "]";
         }
     }
 
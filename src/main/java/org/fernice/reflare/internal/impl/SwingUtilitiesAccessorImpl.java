@@ -1,30 +1,313 @@
 package org.fernice.reflare.internal.impl;
 
+import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.PrintGraphics;
+import java.awt.font.FontRenderContext;
+import java.awt.print.PrinterGraphics;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import javax.swing.JComponent;
 import org.fernice.reflare.internal.SwingUtilitiesHelper.SwingUtilitiesAccessor;
+import sun.font.Font2D;
+import sun.font.FontUtilities;
+import sun.java2d.SunGraphics2D;
+import sun.java2d.pipe.OutlineTextRenderer;
 import sun.swing.SwingUtilities2;
+import sun.swing.SwingUtilities2.AATextInfo;
+
+import static java.awt.RenderingHints.KEY_TEXT_ANTIALIASING;
+import static java.awt.RenderingHints.KEY_TEXT_LCD_CONTRAST;
 
 public class SwingUtilitiesAccessorImpl implements SwingUtilitiesAccessor {
 
+    /**
+     * System property defining the maximum number of cached glyph vectors, a value of zero
+     * disables the cache.
+     */
+    public static final String GLYPH_VECTOR_CACHE_SIZE_PROPERTY = "org.fernice.reflare.glyphVectorCacheSize";
+
+    private static final GlyphVectorCache glyphVectorCache = new GlyphVectorCache(
+            AccessController.doPrivileged((PrivilegedAction<Integer>) () -> Integer.getInteger(GLYPH_VECTOR_CACHE_SIZE_PROPERTY, 1024)));
+
+    private static final FontMetricsCache fontMetricsCache = new FontMetricsCache();
+
+    static {
+        Metrics.gauge("text.glyphVectorCache.hits", SwingUtilitiesAccessorImpl::getGlyphVectorCacheHitCount);
+        Metrics.gauge("text.glyphVectorCache.misses", SwingUtilitiesAccessorImpl::getGlyphVectorCacheMissCount);
+        Metrics.gauge("text.fontMetricsCache.hits", SwingUtilitiesAccessorImpl::getFontMetricsCacheHitCount);
+        Metrics.gauge("text.fontMetricsCache.misses", SwingUtilitiesAccessorImpl::getFontMetricsCacheMissCount);
+    }
+
+    // components overriding getFontMetrics(Font) are asked for their metrics themselves
+    private static final ClassValue<Boolean> customFontMetrics = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("getFontMetrics", Font.class).getDeclaringClass() != JComponent.class;
+            } catch (NoSuchMethodException e) {
+                return true;
+            }
+        }
+    };
+
+    private static final MethodHandle aaHintGetter;
+    private static final MethodHandle lcdContrastHintGetter;
+    private static final MethodHandle frcGetter;
+
+    static {
+        try {
+            MethodHandle[] getters = AccessController.doPrivileged((PrivilegedExceptionAction<MethodHandle[]>) () -> {
+                Field aaHint = AATextInfo.class.getDeclaredField("aaHint");
+                aaHint.setAccessible(true);
+                Field lcdContrastHint = AATextInfo.class.getDeclaredField("lcdContrastHint");
+                lcdContrastHint.setAccessible(true);
+                Field frc = AATextInfo.class.getDeclaredField("frc");
+                frc.setAccessible(true);
+
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                return new MethodHandle[]{lookup.unreflectGetter(aaHint), lookup.unreflectGetter(lcdContrastHint), lookup.unreflectGetter(frc)};
+            });
+            aaHintGetter = getters[0];
+            lcdContrastHintGetter = getters[1];
+            frcGetter = getters[2];
+        } catch (PrivilegedActionException e) {
+            throw new IllegalStateException("failed to access necessary resources for SwingUtilitiesAccessorImpl", e);
+        }
+    }
+
     @Override
     public Object getBASICMENUITEMUI_MAX_TEXT_OFFSET() {
         return SwingUtilities2.BASICMENUITEMUI_MAX_TEXT_OFFSET;
     }
 
+    /**
+     * Returns the same metrics as {@link SwingUtilities2#getFontMetrics(JComponent, Graphics)}, but
+     * shares them across all components with the same font and font render context and memoizes
+     * the widths of the strings measured through them.
+     */
     @Override
     public FontMetrics getFontMetrics(JComponent var0, Graphics var1) {
-        return SwingUtilities2.getFontMetrics(var0, var1);
+        if (var0 == null || customFontMetrics.get(var0.getClass())) {
+            return SwingUtilities2.getFontMetrics(var0, var1);
+        }
+
+        // same as SwingUtilities2.getFontMetrics(JComponent, Font)
+        AATextInfo info = (AATextInfo) var0.getClientProperty(SwingUtilities2.AA_TEXT_PROPERTY_KEY);
+        FontRenderContext frc = info != null ? getFontRenderContext(info) : null;
+        if (frc == null) {
+            frc = SwingUtilities2.DEFAULT_FRC;
+        }
+
+        return fontMetricsCache.getFontMetrics(var1.getFont(), frc);
     }
 
     @Override
     public void drawString(JComponent c, Graphics g, String text, int x, int y) {
-        SwingUtilities2.drawString(c, g, text, x, y);
+        if (!isGlyphVectorDrawable(g, text)) {
+            SwingUtilities2.drawString(c, g, text, x, y);
+            return;
+        }
+
+        drawGlyphVector(c, (SunGraphics2D) g, text, x, y);
     }
 
     @Override
     public void drawStringUnderlineCharAt(JComponent var0, Graphics var1, String var2, int var3, int var4, int var5) {
-        SwingUtilities2.drawStringUnderlineCharAt(var0, var1, var2, var3, var4, var5);
+        if (!isGlyphVectorDrawable(var1, var2)) {
+            SwingUtilities2.drawStringUnderlineCharAt(var0, var1, var2, var3, var4, var5);
+            return;
+        }
+
+        drawGlyphVector(var0, (SunGraphics2D) var1, var2, var4, var5);
+
+        // same as SwingUtilities2 for text without complex layout on screen
+        if (var3 >= 0 && var3 < var2.length()) {
+            FontMetrics fm = var1.getFontMetrics();
+            int underlineRectX = var4 + SwingUtilities2.stringWidth(var0, fm, var2.substring(0, var3));
+            int underlineRectWidth = fm.charWidth(var2.charAt(var3));
+
+            var1.fillRect(underlineRectX, var5 + 1, underlineRectWidth, 1);
+        }
+    }
+
+    /**
+     * Returns whether drawing the glyph vector of the text yields the same pixels as drawing the
+     * string itself. This is the case for simple text drawn on screen with an untransformed font
+     * and a graphics, which is at most translated and does not use fractional metrics. Any other
+     * text is drawn by {@link SwingUtilities2}.
+     */
+    private static boolean isGlyphVectorDrawable(Graphics g, String text) {
+        if (glyphVectorCache.getCapacity() <= 0 || text == null || text.isEmpty()) {
+            return false;
+        }
+        if (!(g instanceof SunGraphics2D) || g instanceof PrinterGraphics || g instanceof PrintGraphics) {
+            return false;
+        }
+
+        SunGraphics2D g2 = (SunGraphics2D) g;
+        if (g2.transformState >= SunGraphics2D.TRANSFORM_TRANSLATESCALE) {
+            return false;
+        }
+
+        // text layout and large fonts take separate paths when drawn as string
+        Font font = g2.getFont();
+        if (font.hasLayoutAttributes() || font.isTransformed() || (int) (font.getSize2D() + 0.5) > OutlineTextRenderer.THRESHHOLD) {
+            return false;
+        }
+
+        return !isComplexText(text);
+    }
+
+    /**
+     * Same as {@link FontUtilities#isComplexText(char[], int, int)} without copying the string.
+     */
+    private static boolean isComplexText(String text) {
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char ch = text.charAt(i);
+            if (ch >= FontUtilities.MIN_LAYOUT_CHARCODE && FontUtilities.isNonSimpleChar(ch)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void drawGlyphVector(JComponent c, SunGraphics2D g2, String text, int x, int y) {
+        AATextInfo info = SwingUtilities2.drawTextAntialiased(c);
+
+        Object oldAAValue = null;
+        Object oldContrast = null;
+        if (info != null) {
+            Object aaHint = getAAHint(info);
+            Integer lcdContrastHint = getLcdContrastHint(info);
+
+            oldAAValue = g2.getRenderingHint(KEY_TEXT_ANTIALIASING);
+            if (aaHint != oldAAValue) {
+                g2.setRenderingHint(KEY_TEXT_ANTIALIASING, aaHint);
+            } else {
+                oldAAValue = null;
+            }
+            if (lcdContrastHint != null) {
+                oldContrast = g2.getRenderingHint(KEY_TEXT_LCD_CONTRAST);
+                if (lcdContrastHint.equals(oldContrast)) {
+                    oldContrast = null;
+                } else {
+                    g2.setRenderingHint(KEY_TEXT_LCD_CONTRAST, lcdContrastHint);
+                }
+            }
+        }
+
+        try {
+            FontRenderContext frc = g2.getFontRenderContext();
+
+            if (frc.usesFractionalMetrics()) {
+                g2.drawString(text, x, y);
+            } else {
+                Font font = g2.getFont();
+                g2.drawGlyphVector(glyphVectorCache.get(text, font, FontUtilities.getFont2D(font), frc), x, y);
+            }
+        } finally {
+            if (oldAAValue != null) {
+                g2.setRenderingHint(KEY_TEXT_ANTIALIASING, oldAAValue);
+            }
+            if (oldContrast != null) {
+                g2.setRenderingHint(KEY_TEXT_LCD_CONTRAST, oldContrast);
+            }
+        }
+    }
+
+    private static Object getAAHint(AATextInfo info) {
+        try {
+            return (Object) aaHintGetter.invokeExact(info);
+        } catch (Throwable t) {
+            throw new IllegalStateException("failed to access AATextInfo", t);
+        }
+    }
+
+    private static Integer getLcdContrastHint(AATextInfo info) {
+        try {
+            return (Integer) lcdContrastHintGetter.invokeExact(info);
+        } catch (Throwable t) {
+            throw new IllegalStateException("failed to access AATextInfo", t);
+        }
+    }
+
+    private static FontRenderContext getFontRenderContext(AATextInfo info) {
+        try {
+            return (FontRenderContext) frcGetter.invokeExact(info);
+        } catch (Throwable t) {
+            throw new IllegalStateException("failed to access AATextInfo", t);
+        }
+    }
+
+    /**
+     * Computes the metrics of the default font for the text antialiasing info of the desktop, so
+     * that the first component measuring its text does not have to.
+     */
+    static void prepareFontMetrics() {
+        Object info = AATextInfoAccessorImpl.getAATextInfo();
+        FontRenderContext frc = info instanceof AATextInfo ? getFontRenderContext((AATextInfo) info) : null;
+        if (frc == null) {
+            frc = SwingUtilities2.DEFAULT_FRC;
+        }
+
+        fontMetricsCache.getFontMetrics(new Font(Font.DIALOG, Font.PLAIN, 12), frc).stringWidth("Aa");
+    }
+
+    /**
+     * Evicts the cached metrics and glyph vectors of all fonts backed by the same physical fonts
+     * as any of the specified fonts.
+     */
+    static void evictFonts(Collection<Font> fonts) {
+        Set<Font2D> fonts2D = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Font font : fonts) {
+            fonts2D.add(FontUtilities.getFont2D(font));
+        }
+
+        fontMetricsCache.evict(fonts2D);
+        glyphVectorCache.evict(fonts2D);
+    }
+
+    public static long getFontMetricsCacheHitCount() {
+        return fontMetricsCache.getHitCount();
+    }
+
+    public static long getFontMetricsCacheMissCount() {
+        return fontMetricsCache.getMissCount();
+    }
+
+    public static void clearFontMetricsCache() {
+        fontMetricsCache.clear();
+    }
+
+    public static long getGlyphVectorCacheHitCount() {
+        return glyphVectorCache.getHitCount();
+    }
+
+    public static long getGlyphVectorCacheMissCount() {
+        return glyphVectorCache.getMissCount();
+    }
+
+    /**
+     * Returns the ratio of glyph vectors served from the cache to all glyph vectors drawn.
+     */
+    public static double getGlyphVectorCacheHitRate() {
+        long hits = glyphVectorCache.getHitCount();
+        long total = hits + glyphVectorCache.getMissCount();
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    public static void clearGlyphVectorCache() {
+        glyphVectorCache.clear();
     }
 }
@@ -0,0 +1,204 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Performs the expensive one-off initializations of the accessors on background threads, before
+ * they are first needed on the event dispatch thread. Phases run in parallel unless they depend on
+ * one another. Callers needing an initialization while it is in progress join it through the
+ * synchronization of the respective accessor rather than performing it once more.
+ * <p>
+ * The phases can be configured through the {@code org.fernice.reflare.warmUp} system property as
+ * a comma separated list of phase names. Dependencies of the listed phases are always included.
+ * Setting the property to {@code none} disables the warm-up entirely.
+ */
+final class WarmUp {
+
+    static final String WARM_UP_PROPERTY = "org.fernice.reflare.warmUp";
+
+    private static final Phase FONT_FAMILIES = new Phase("fontFamilies", SunFontAccessorImpl::initializeFontFamilies);
+    private static final Phase AA_TEXT_INFO = new Phase("aaTextInfo", AATextInfoAccessorImpl::getAATextInfo);
+    private static final Phase FONT_METRICS = new Phase("fontMetrics", SwingUtilitiesAccessorImpl::prepareFontMetrics, FONT_FAMILIES, AA_TEXT_INFO);
+    private static final Phase POPUPS = new Phase("popups", WarmUp::initializePopups);
+
+    private static final List<Phase> PHASES = Arrays.asList(FONT_FAMILIES, AA_TEXT_INFO, FONT_METRICS, POPUPS);
+
+    private static final AtomicBoolean started = new AtomicBoolean();
+
+    private WarmUp() {
+    }
+
+    /**
+     * Starts the configured phases, if they have not been started yet.
+     */
+    static void start() {
+        if (started.getAndSet(true)) {
+            return;
+        }
+
+        Set<Phase> phases = getConfiguredPhases();
+        if (phases.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = createExecutor();
+        for (Phase phase : PHASES) {
+            if (phases.contains(phase)) {
+                phase.schedule(executor);
+            }
+        }
+    }
+
+    /**
+     * Waits for all started phases to complete. Failed phases are ignored.
+     */
+    static void await() {
+        for (Phase phase : PHASES) {
+            CompletableFuture<Void> future = phase.future;
+            if (future != null) {
+                future.handle((result, throwable) -> null).join();
+            }
+        }
+    }
+
+    /**
+     * Returns the duration of every completed phase in nanoseconds by phase name in the order
+     * the phases are declared.
+     */
+    @NotNull
+    static Map<String, Long> getPhaseNanos() {
+        Map<String, Long> phaseNanos = new LinkedHashMap<>();
+        for (Phase phase : PHASES) {
+            long nanos = phase.nanos;
+            if (nanos >= 0) {
+                phaseNanos.put(phase.name, nanos);
+            }
+        }
+        return phaseNanos;
+    }
+
+    @NotNull
+    private static Set<Phase> getConfiguredPhases() {
+        String value = AccessController.doPrivileged((PrivilegedAction<String>) () -> System.getProperty(WARM_UP_PROPERTY));
+        if (value == null || value.trim().equals("true") || value.trim().equals("all")) {
+            return new HashSet<>(PHASES);
+        }
+
+        Set<Phase> phases = new HashSet<>();
+        for (String name : value.split(",")) {
+            for (Phase phase : PHASES) {
+                if (phase.name.equalsIgnoreCase(name.trim())) {
+                    phase.collect(phases);
+                }
+            }
+        }
+        return phases;
+    }
+
+    private static void initializePopups() {
+        try {
+            Class.forName(ScreenPopupFactory.class.getName(), true, ScreenPopupFactory.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("failed to initialize ScreenPopupFactory", e);
+        }
+    }
+
+    @NotNull
+    private static ExecutorService createExecutor() {
+        int threads = Math.max(1, Math.min(PHASES.size(), Runtime.getRuntime().availableProcessors()));
+
+        // dependent phases are submitted late, the threads terminate when idle instead
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NotNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "reflare-warm-up-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    private static final class Phase {
+
+        @NotNull
+        final String name;
+        @NotNull
+        private final Runnable task;
+        @NotNull
+        private final List<Phase> dependencies;
+
+        private final Metrics.Timer timer;
+
+        @Nullable
+        volatile CompletableFuture<Void> future;
+        volatile long nanos = -1;
+
+        Phase(@NotNull String name, @NotNull Runnable task, @NotNull Phase... dependencies) {
+            this.name = name;
+            this.task = task;
+            this.dependencies = Collections.unmodifiableList(Arrays.asList(dependencies));
+            this.timer = Metrics.timer("warmUp." + name);
+        }
+
+        void collect(@NotNull Set<Phase> phases) {
+            if (phases.add(this)) {
+                for (Phase dependency : dependencies) {
+                    dependency.collect(phases);
+                }
+            }
+        }
+
+        /**
+         * Schedules the phase to run once all of its dependencies have completed, successfully
+         * or not. Dependencies must have been scheduled before.
+         */
+        void schedule(@NotNull ExecutorService executor) {
+            CompletableFuture<?>[] dependencies = new CompletableFuture<?>[this.dependencies.size()];
+            for (int i = 0; i < dependencies.length; i++) {
+                dependencies[i] = this.dependencies.get(i).future.handle((result, throwable) -> null);
+            }
+
+            future = CompletableFuture.allOf(dependencies).thenRunAsync(this::run, executor);
+        }
+
+        private void run() {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                nanos = System.nanoTime() - start;
+                timer.recordNanos(nanos);
+            }
+        }
+    }
+}
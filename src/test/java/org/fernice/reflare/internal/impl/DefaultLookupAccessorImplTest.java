@@ -0,0 +1,94 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.ref.WeakReference;
+import javax.swing.JComponent;
+import javax.swing.JTable;
+import javax.swing.UIManager;
+import javax.swing.plaf.ComponentUI;
+import javax.swing.plaf.basic.BasicTableUI;
+import javax.swing.plaf.metal.MetalLookAndFeel;
+import org.fernice.reflare.internal.DefaultLookup;
+import org.fernice.reflare.internal.DefaultLookupDelegate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the cache of resolved defaults. Requires a headless environment at most.
+ */
+public class DefaultLookupAccessorImplTest {
+
+    private static final String KEY = "Table.ancestorInputMap";
+
+    @Before
+    public void setUp() throws Exception {
+        UIManager.setLookAndFeel(new MetalLookAndFeel());
+
+        new DefaultLookupAccessorImpl().setDefaultLookup(new DefaultLookup() {
+            @Override
+            public Object getDefault(JComponent c, ComponentUI ui, String key, DefaultLookupDelegate delegate) {
+                return delegate.getDefault(c, ui, key);
+            }
+        });
+        DefaultLookupAccessorImpl.setCachingEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        DefaultLookupAccessorImpl.setCachingEnabled(false);
+    }
+
+    @Test
+    public void testCachedDefaults() {
+        JTable table = new JTable();
+
+        Object value = sun.swing.DefaultLookup.get(table, table.getUI(), KEY);
+        assertNotNull(value);
+
+        long hits = DefaultLookupAccessorImpl.getCacheHitCount();
+        assertSame(value, sun.swing.DefaultLookup.get(table, table.getUI(), KEY));
+        assertEquals(hits + 1, DefaultLookupAccessorImpl.getCacheHitCount());
+
+        // another UI delegate resolves the defaults anew
+        long misses = DefaultLookupAccessorImpl.getCacheMissCount();
+        sun.swing.DefaultLookup.get(table, new BasicTableUI(), KEY);
+        assertEquals(misses + 1, DefaultLookupAccessorImpl.getCacheMissCount());
+
+        DefaultLookupAccessorImpl.invalidateDefaults(table);
+        sun.swing.DefaultLookup.get(table, table.getUI(), KEY);
+        assertEquals(misses + 2, DefaultLookupAccessorImpl.getCacheMissCount());
+    }
+
+    /**
+     * UI delegates commonly reference their component, the cached defaults must not keep
+     * either of them reachable.
+     */
+    @Test
+    public void testCachedComponentIsCollected() throws Exception {
+        WeakReference<JTable> reference = lookUpDefaults();
+
+        for (int i = 0; i < 10 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull(reference.get());
+    }
+
+    private static WeakReference<JTable> lookUpDefaults() {
+        JTable table = new JTable();
+        assertNotNull(sun.swing.DefaultLookup.get(table, table.getUI(), KEY));
+        return new WeakReference<>(table);
+    }
+}
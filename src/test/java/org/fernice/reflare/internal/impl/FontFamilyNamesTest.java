@@ -0,0 +1,105 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Compares the derivation of the alias font families against the previous derivation, which
+ * searched for every weight name individually.
+ */
+public class FontFamilyNamesTest {
+
+    private static final String[] WEIGHT_NAMES = { //
+            "thin", "light", "ultralight", "ultra light", "ultra-light", //
+            "extralight", "extlt", "extra light", "extra-light", //
+            "demilight", "demi light", "demi-light", //
+            "normal", "regular", "medium", "med", //
+            "bold", "heavy", "black", "blk", //
+            "semibold", "sembd", "semi bold", "semi-bold", //
+            "demibold", "demi", "demi bold", "demi-bold", //
+            "extrabold", "extbd", "extra bold", "extra-bold", //
+            "ultrabold", "ultra bold", "ultra-bold", //
+    };
+
+    private static final String[] CORPUS = { //
+            // plain families
+            "", "dejavu sans", "liberation serif", "noto sans cjk jp", "arial", //
+            // weight names within the family
+            "dejavu sans light", "open sans semibold", "roboto medium", "segoe ui black", //
+            "source sans pro extralight", "helvetica neue ultra light", "lato heavy", //
+            // overlapping weight names, which end at the same position or contain one another
+            "noto sans extra-light", "source code pro demibold", "montserrat ultrabold", //
+            "fira sans extra bold", "ibm plex sans semi-bold", "open sans demi light", //
+            "sembd extbd extlt", "medium med", "ultralightultrabold", //
+            // weight names occurring more than once
+            "bold bold", "light sans light", "regular regular regular", "thin thin-thin", //
+            "demi demi bold demi-bold", "black blk black", //
+            // names beginning with a weight name
+            "bold", "light", "demi", "medium", "black", "thin sans", "heavy metal", //
+            "ultra light", "extra-bold display", "regularity", "boldface", "demibolder", //
+            // characters outside of the automaton's alphabet
+            "font 1 bold", "font_light", "font.medium", "font2demi-bold", "ærial bold", "schrift fett", //
+            // near misses
+            "bol", "ligh", "ultra", "extra", "semi", "demi-", "ultra-lite", "blac", //
+    };
+
+    private static final String[] FRAGMENTS = { //
+            "thin", "light", "ultra", "extra", "demi", "semi", "bold", "med", "ium", "regular", //
+            "normal", "heavy", "black", "blk", "extbd", "sembd", "extlt", " ", "-", "sans", "a", "1", //
+    };
+
+    @Test
+    public void testCorpus() {
+        for (String familyName : CORPUS) {
+            assertFamilyNames(familyName);
+        }
+    }
+
+    @Test
+    public void testGeneratedNames() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100_000; i++) {
+            StringBuilder familyName = new StringBuilder();
+            for (int j = random.nextInt(6); j >= 0; j--) {
+                familyName.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            assertFamilyNames(familyName.toString());
+        }
+    }
+
+    @Test
+    public void testWeightNamesInOrder() {
+        // "bold" precedes "semibold" in the weight names, although it occurs later in the family
+        assertArrayEquals(new String[]{"open sans semibold", "open sans semi", "open sans"}, FontFamilyNames.getFamilyNames("open sans semibold"));
+    }
+
+    private static void assertFamilyNames(String familyName) {
+        assertArrayEquals(familyName, getLegacyFamilyNames(familyName), FontFamilyNames.getFamilyNames(familyName));
+    }
+
+    private static String[] getLegacyFamilyNames(String familyName) {
+        List<String> familyNames = new ArrayList<>(4);
+        familyNames.add(familyName);
+
+        for (String weightName : WEIGHT_NAMES) {
+            int index = familyName.indexOf(weightName);
+
+            if (index >= 0) {
+                familyNames.add(familyName.substring(0, index).trim());
+            }
+        }
+
+        return familyNames.toArray(new String[0]);
+    }
+}
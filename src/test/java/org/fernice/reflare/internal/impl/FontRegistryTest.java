@@ -0,0 +1,120 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.fernice.reflare.internal.impl.FontRegistry.FontFamilyBuilder;
+import org.fernice.reflare.internal.impl.SunFontAccessorImpl.FontPeer;
+import org.junit.Test;
+
+/**
+ * Compares merging fonts into a font family through the {@link FontFamilyBuilder} against the
+ * previous merging, which scanned the font family for a matching font on every merge.
+ */
+public class FontRegistryTest {
+
+    private static final int[] WEIGHTS = {100, 300, 400, 500, 700, 900};
+
+    @Test
+    public void testKeep() {
+        List<FontPeer> systemFonts = fonts("system", 400, false, 400, true, 700, false);
+
+        FontFamilyBuilder builder = new FontFamilyBuilder(systemFonts);
+        List<FontPeer> legacy = new ArrayList<>(systemFonts);
+
+        for (FontPeer font : fonts("extension", 400, false, 300, false, 300, false, 700, true)) {
+            assertMerge(builder, legacy, font, FontRegistry.MERGING_STRATEGY_KEEP);
+        }
+    }
+
+    @Test
+    public void testOverride() {
+        // system fonts are combined and may occupy the same slot more than once
+        List<FontPeer> systemFonts = fonts("system", 400, false, 400, false, 700, false, 400, true);
+
+        FontFamilyBuilder builder = new FontFamilyBuilder(systemFonts);
+        List<FontPeer> legacy = new ArrayList<>(systemFonts);
+
+        for (FontPeer font : fonts("override", 400, false, 700, false, 700, false, 100, true)) {
+            assertMerge(builder, legacy, font, FontRegistry.MERGING_STRATEGY_OVERRIDE);
+        }
+    }
+
+    @Test
+    public void testGeneratedMerges() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 10_000; i++) {
+            List<FontPeer> systemFonts = new ArrayList<>();
+            for (int j = random.nextInt(6); j > 0; j--) {
+                systemFonts.add(randomFont(random, "system" + j));
+            }
+
+            FontFamilyBuilder builder = new FontFamilyBuilder(systemFonts.isEmpty() && random.nextBoolean() ? null : systemFonts);
+            List<FontPeer> legacy = new ArrayList<>(systemFonts);
+
+            // extensions are merged before the overrides
+            for (int j = random.nextInt(6); j > 0; j--) {
+                assertMerge(builder, legacy, randomFont(random, "extension" + j), FontRegistry.MERGING_STRATEGY_KEEP);
+            }
+            for (int j = random.nextInt(6); j > 0; j--) {
+                assertMerge(builder, legacy, randomFont(random, "override" + j), FontRegistry.MERGING_STRATEGY_OVERRIDE);
+            }
+        }
+    }
+
+    private static void assertMerge(FontFamilyBuilder builder, List<FontPeer> legacy, FontPeer font, int mergingStrategy) {
+        String message = font + " into " + legacy;
+
+        assertEquals(message, mergeLegacy(legacy, font, mergingStrategy), builder.merge(font, mergingStrategy));
+        assertEquals(message, legacy, builder.fonts);
+    }
+
+    private static boolean mergeLegacy(List<FontPeer> fonts, FontPeer fontPeer, int mergingStrategy) {
+        while (true) {
+            FontPeer matchingFont = null;
+            for (FontPeer candidateFont : fonts) {
+                if (candidateFont.weight == fontPeer.weight && candidateFont.italic == fontPeer.italic) {
+                    matchingFont = candidateFont;
+                    break;
+                }
+            }
+
+            if (matchingFont != null) {
+                if (mergingStrategy == FontRegistry.MERGING_STRATEGY_KEEP) {
+                    return false;
+                }
+
+                if (mergingStrategy == FontRegistry.MERGING_STRATEGY_OVERRIDE) {
+                    fonts.remove(matchingFont);
+                    continue;
+                }
+            }
+            break;
+        }
+
+        fonts.add(fontPeer);
+
+        return true;
+    }
+
+    private static FontPeer randomFont(Random random, String name) {
+        return new FontPeer(name, WEIGHTS[random.nextInt(WEIGHTS.length)], random.nextBoolean());
+    }
+
+    private static List<FontPeer> fonts(String name, Object... slots) {
+        List<FontPeer> fonts = new ArrayList<>();
+        for (int i = 0; i < slots.length; i += 2) {
+            fonts.add(new FontPeer(name + i / 2, (Integer) slots[i], (Boolean) slots[i + 1]));
+        }
+        return fonts;
+    }
+}
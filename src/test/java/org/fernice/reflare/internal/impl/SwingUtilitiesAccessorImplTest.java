@@ -0,0 +1,206 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.fernice.reflare.internal.impl;
+
+import static java.awt.RenderingHints.KEY_FRACTIONALMETRICS;
+import static java.awt.RenderingHints.KEY_TEXT_ANTIALIASING;
+import static java.awt.RenderingHints.VALUE_FRACTIONALMETRICS_OFF;
+import static java.awt.RenderingHints.VALUE_FRACTIONALMETRICS_ON;
+import static java.awt.RenderingHints.VALUE_TEXT_ANTIALIAS_GASP;
+import static java.awt.RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_HRGB;
+import static java.awt.RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_VBGR;
+import static java.awt.RenderingHints.VALUE_TEXT_ANTIALIAS_OFF;
+import static java.awt.RenderingHints.VALUE_TEXT_ANTIALIAS_ON;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import org.junit.Test;
+import sun.swing.SwingUtilities2;
+import sun.swing.SwingUtilities2.AATextInfo;
+
+/**
+ * Compares the text drawn through the glyph vector cache with the text drawn by
+ * {@link SwingUtilities2} pixel by pixel. Requires a headless environment at most.
+ */
+public class SwingUtilitiesAccessorImplTest {
+
+    private static final int WIDTH = 240;
+    private static final int HEIGHT = 40;
+
+    private static final AATextInfo[] TEXT_INFOS = { //
+            // the text antialiasing hint of the graphics applies
+            null, //
+            new AATextInfo(VALUE_TEXT_ANTIALIAS_ON, null), //
+            new AATextInfo(VALUE_TEXT_ANTIALIAS_GASP, null), //
+            new AATextInfo(VALUE_TEXT_ANTIALIAS_LCD_HRGB, 140), //
+            new AATextInfo(VALUE_TEXT_ANTIALIAS_LCD_VBGR, 250), //
+    };
+    private static final String[] TEXT_INFO_NAMES = {"none", "on", "gasp", "lcd hrgb 140", "lcd vbgr 250"};
+
+    private static final double[][] TRANSLATIONS = {{0, 0}, {3, 7}, {0.5, 0.25}, {10.3, 2.7}, {-0.6, 1.5}};
+
+    private static final String[] TEXTS = { //
+            "Hello, World", "Ümlaute äöü ß", "Ελληνικά κείμενο", "Кириллица", "日本語のテキスト", //
+            // complex text is always drawn by SwingUtilities2
+            "עברית", "नमस्ते", //
+    };
+
+    // text antialiasing can only be turned off through the graphics
+    private static final Object[] GRAPHICS_TEXT_ANTIALIASING = {VALUE_TEXT_ANTIALIAS_OFF, VALUE_TEXT_ANTIALIAS_ON};
+
+    private static final Font[] FONTS = {new Font(Font.DIALOG, Font.PLAIN, 12), new Font(Font.SERIF, Font.BOLD | Font.ITALIC, 15)};
+
+    private final SwingUtilitiesAccessorImpl accessor = new SwingUtilitiesAccessorImpl();
+
+    @Test
+    public void testDrawString() {
+        for (int infoIndex = 0; infoIndex < TEXT_INFOS.length; infoIndex++) {
+            JComponent component = createComponent(TEXT_INFOS[infoIndex]);
+
+            for (Object textAntialiasing : GRAPHICS_TEXT_ANTIALIASING) {
+                for (Object fractionalMetrics : new Object[]{VALUE_FRACTIONALMETRICS_OFF, VALUE_FRACTIONALMETRICS_ON}) {
+                    for (double[] translation : TRANSLATIONS) {
+                        for (Font font : FONTS) {
+                            for (String text : TEXTS) {
+                                String message = text + " " + font + " " + TEXT_INFO_NAMES[infoIndex] + " " + textAntialiasing + " " + fractionalMetrics + " "
+                                        + translation[0] + "," + translation[1];
+
+                                int[] expected = renderExpected(font, textAntialiasing, fractionalMetrics, translation,
+                                        (g) -> SwingUtilities2.drawString(component, g, text, 4, 24));
+
+                                // the first draw populates the cache, the second is served from it
+                                for (int i = 0; i < 2; i++) {
+                                    assertArrayEquals(message, expected, render(font, textAntialiasing, fractionalMetrics, translation,
+                                            (g) -> accessor.drawString(component, g, text, 4, 24)));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDrawStringUnderlineCharAt() {
+        for (int infoIndex = 0; infoIndex < TEXT_INFOS.length; infoIndex++) {
+            JComponent component = createComponent(TEXT_INFOS[infoIndex]);
+
+            for (Object textAntialiasing : GRAPHICS_TEXT_ANTIALIASING) {
+                for (double[] translation : TRANSLATIONS) {
+                    for (String text : TEXTS) {
+                        for (int index : new int[]{-1, 0, 3, text.length() - 1, text.length()}) {
+                            String message = text + " " + index + " " + TEXT_INFO_NAMES[infoIndex] + " " + textAntialiasing + " " + translation[0] + "," + translation[1];
+
+                            int[] expected = renderExpected(FONTS[0], textAntialiasing, VALUE_FRACTIONALMETRICS_OFF, translation,
+                                    (g) -> SwingUtilities2.drawStringUnderlineCharAt(component, g, text, index, 4, 24));
+
+                            assertArrayEquals(message, expected, render(FONTS[0], textAntialiasing, VALUE_FRACTIONALMETRICS_OFF, translation,
+                                    (g) -> accessor.drawStringUnderlineCharAt(component, g, text, index, 4, 24)));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Glyph vectors are shared between all threads drawing the same text.
+     */
+    @Test
+    public void testConcurrentDrawString() throws Exception {
+        SwingUtilitiesAccessorImpl.clearGlyphVectorCache();
+
+        JComponent component = createComponent(TEXT_INFOS[3]);
+
+        int[][] expected = new int[TEXTS.length][];
+        for (int i = 0; i < TEXTS.length; i++) {
+            String text = TEXTS[i];
+            expected[i] = renderExpected(FONTS[0], VALUE_TEXT_ANTIALIAS_ON, VALUE_FRACTIONALMETRICS_OFF, TRANSLATIONS[2], (g) -> SwingUtilities2.drawString(component, g, text, 4, 24));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                int offset = thread;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        int index = (i + offset) % TEXTS.length;
+                        String text = TEXTS[index];
+
+                        assertArrayEquals(text, expected[index], render(FONTS[0], VALUE_TEXT_ANTIALIAS_ON, VALUE_FRACTIONALMETRICS_OFF, TRANSLATIONS[2],
+                                (g) -> accessor.drawString(component, g, text, 4, 24)));
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(SwingUtilitiesAccessorImpl.getGlyphVectorCacheHitCount() > 0);
+    }
+
+    private static JComponent createComponent(AATextInfo info) {
+        JLabel label = new JLabel();
+        if (info != null) {
+            label.putClientProperty(SwingUtilities2.AA_TEXT_PROPERTY_KEY, info);
+        }
+        return label;
+    }
+
+    /**
+     * Renders the expected pixels, after the glyphs have been rendered once. The very first
+     * rendering of a glyph may differ from subsequent renderings in the JDK itself.
+     */
+    private static int[] renderExpected(Font font, Object textAntialiasing, Object fractionalMetrics, double[] translation, Painter painter) {
+        render(font, textAntialiasing, fractionalMetrics, translation, painter);
+        return render(font, textAntialiasing, fractionalMetrics, translation, painter);
+    }
+
+    private static int[] render(Font font, Object textAntialiasing, Object fractionalMetrics, double[] translation, Painter painter) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, WIDTH, HEIGHT);
+
+            g.setColor(Color.BLACK);
+            g.setFont(font);
+            g.setRenderingHint(KEY_TEXT_ANTIALIASING, textAntialiasing);
+            g.setRenderingHint(KEY_FRACTIONALMETRICS, fractionalMetrics);
+            g.translate(translation[0], translation[1]);
+
+            painter.paint(g);
+        } finally {
+            g.dispose();
+        }
+
+        return image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    }
+
+    private interface Painter {
+
+        void paint(Graphics2D g);
+    }
+}